@@ -0,0 +1,72 @@
+package name.kevinross.jsonrpc.load;
+
+/**
+ * Fixed-size histogram of latencies in microseconds. Values under 128us are kept exactly, larger
+ * ones with 6 bits of precision (under 2% error), so a soak run of any length uses the same memory.
+ */
+public class LatencyHistogram {
+    private static final int EXACT = 128;
+    private static final int SUB = 64;
+    private final long[] counts = new long[EXACT + 58 * SUB];
+    private long total = 0;
+    private long max = 0;
+
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        counts[index(micros)]++;
+        total++;
+        if (micros > max)
+            max = micros;
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Smallest recorded value that at least p percent of recorded values do not exceed.
+     */
+    public long percentile(double p) {
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(total * p / 100.0);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(value(i), max);
+        }
+        return max;
+    }
+
+    private static int index(long v) {
+        if (v < EXACT)
+            return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - 6;
+        return EXACT + (shift - 1) * SUB + (int) ((v >>> shift) - SUB);
+    }
+
+    // upper bound of the bucket at i
+    private static long value(int i) {
+        if (i < EXACT)
+            return i;
+        int shift = (i - EXACT) / SUB + 1;
+        long m = (i - EXACT) % SUB + SUB;
+        return ((m + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,394 @@
+package name.kevinross.jsonrpc.load;
+
+import name.kevinross.jsonrpc.ApiClient;
+import name.kevinross.jsonrpc.BatchCallRunnable;
+import name.kevinross.jsonrpc.BatchClient;
+import name.kevinross.jsonrpc.PythonMagic;
+import name.kevinross.jsonrpc.Session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Drives ApiClient with a mix of operations from many threads and reports throughput and latency
+ * percentiles per operation.
+ *
+ *     gradle loadTest -PloadArgs="--threads 32 --rate 2000 --duration 60 --mix call=4,proxy=3,batch=1,attr=2"
+ *
+ * With a --rate each thread sends on a fixed schedule and latency is measured from when a call
+ * was due rather than when it was sent, so a stalled server shows up in the percentiles instead of
+ * silently lowering the request rate (coordinated omission). The uncorrected service time is
+ * reported next to it. Without --rate threads send back to back and only service time is meaningful.
+ *
+ * A server given with --url needs what the stand-in has: a root with an "api" attribute whose
+ * functions are echo(val), returning val; payload(n), returning a string of n characters; and
+ * object(i), returning a remote object with attributes "x" and "blob". Operations that need a
+ * function the server's api lacks are left out of the mix:
+ *   call, proxy, batch, raw   echo
+ *   payload                   payload
+ *   attr, snapshot            object
+ *   pipeline                  object and echo
+ *
+ * Options (defaults in brackets):
+ *   --url URL             server to test; starts a StandInServer when omitted
+ *   --threads N           client threads [16]
+ *   --virtual             use virtual threads where the JVM has them
+ *   --rate N              total operations per second, 0 for back to back [0]
+ *   --duration S          measured seconds [30]
+ *   --warmup S            unmeasured seconds before that [5]
+ *   --mix op=w,...        weights for call, proxy, batch, attr, snapshot, pipeline, raw and payload [call=4,proxy=3,batch=1,attr=2]
+ *   --latency MS          stand-in server delay per request [1]
+ *   --jitter MS           extra random stand-in server delay [0]
+ *   --payload N           bytes echoed per call, held in the "blob" attribute and asked of payload [64]
+ *   --server-threads N    stand-in server threads [64]
+ *   --objects N           remote objects on the stand-in server [128]
+ */
+public class LoadTest {
+    static final String[] OPS = {"call", "proxy", "batch", "attr", "snapshot", "pipeline", "raw", "payload"};
+    // the api functions each operation calls
+    static final String[][] NEEDS = {{"echo"}, {"echo"}, {"echo"}, {"object"}, {"object"}, {"object", "echo"}, {"echo"}, {"payload"}};
+
+    public interface Target extends PythonMagic {
+        public String echo(String val);
+        public Target object(int i);
+    }
+
+    public interface Root extends PythonMagic {
+        public Target api();
+    }
+
+    String url = null;
+    int threads = 16;
+    boolean virtual = false;
+    double rate = 0;
+    long duration = 30;
+    long warmup = 5;
+    Map<String, Integer> mix = new LinkedHashMap<String, Integer>();
+    long latency = 1;
+    long jitter = 0;
+    int payload = 64;
+    int server_threads = 64;
+    int object_count = 128;
+    List<String> funcs = null;
+
+    LoadTest(String[] args) {
+        mix("call=4,proxy=3,batch=1,attr=2");
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("--virtual")) {
+                virtual = true;
+                continue;
+            }
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("missing value for " + a);
+            String v = args[++i];
+            if (a.equals("--url")) url = v;
+            else if (a.equals("--threads")) threads = Integer.parseInt(v);
+            else if (a.equals("--rate")) rate = Double.parseDouble(v);
+            else if (a.equals("--duration")) duration = Long.parseLong(v);
+            else if (a.equals("--warmup")) warmup = Long.parseLong(v);
+            else if (a.equals("--mix")) mix(v);
+            else if (a.equals("--latency")) latency = Long.parseLong(v);
+            else if (a.equals("--jitter")) jitter = Long.parseLong(v);
+            else if (a.equals("--payload")) payload = Integer.parseInt(v);
+            else if (a.equals("--server-threads")) server_threads = Integer.parseInt(v);
+            else if (a.equals("--objects")) object_count = Integer.parseInt(v);
+            else throw new IllegalArgumentException("unknown option " + a);
+        }
+    }
+
+    private void mix(String spec) {
+        mix.clear();
+        for (String part : spec.split(",")) {
+            String[] kv = part.split("=");
+            boolean known = false;
+            for (String op : OPS) {
+                known |= op.equals(kv[0]);
+            }
+            if (!known)
+                throw new IllegalArgumentException("unknown operation " + kv[0]);
+            mix.put(kv[0], Integer.valueOf(kv[1]));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(args).run();
+    }
+
+    void run() throws Exception {
+        StandInServer server = null;
+        String endpoint = url;
+        if (endpoint == null) {
+            server = new StandInServer(0, server_threads, latency, jitter, payload, object_count);
+            server.start();
+            endpoint = server.endpoint();
+        }
+        try {
+            supported(endpoint);
+            System.out.printf("target %s, %d %s threads, %s, mix %s%n", endpoint, threads, virtual ? "virtual" : "platform",
+                    rate > 0 ? String.format("%.0f ops/s", rate) : "back to back", mix);
+            List<Worker> workers = new ArrayList<Worker>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(new Worker(i, endpoint));
+            }
+            long start = System.nanoTime() + 100000000L;
+            long measure = start + warmup * 1000000000L;
+            long end = measure + duration * 1000000000L;
+            CountDownLatch done = new CountDownLatch(threads);
+            for (Worker w : workers) {
+                w.schedule(start, measure, end, done);
+                thread(w).start();
+            }
+            done.await();
+            long finished = end;
+            for (Worker w : workers) {
+                finished = Math.max(finished, w.finished);
+            }
+            // a server that fell behind takes longer than the schedule to work through it
+            report(workers, (finished - measure) / 1e9);
+        } finally {
+            if (server != null)
+                server.stop();
+        }
+    }
+
+    // drops operations the target's api can't serve from the mix
+    private void supported(String endpoint) {
+        ApiClient api = (ApiClient) ApiClient.with_session(endpoint, new Session()).get("api");
+        if (api == null)
+            throw new IllegalStateException("could not reach " + endpoint);
+        funcs = Arrays.asList(api.interface_().funcs);
+        for (int op = 0; op < OPS.length; op++) {
+            for (String f : NEEDS[op]) {
+                if (mix.containsKey(OPS[op]) && !funcs.contains(f)) {
+                    System.out.printf("leaving out %s, %s has no %s()%n", OPS[op], endpoint, f);
+                    mix.remove(OPS[op]);
+                }
+            }
+        }
+        if (mix.isEmpty())
+            throw new IllegalStateException(endpoint + " supports none of the operations in the mix");
+    }
+
+    private Thread thread(Runnable r) throws Exception {
+        if (virtual) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class).invoke(builder, r);
+            } catch (NoSuchMethodException e) {
+                System.out.println("no virtual threads in this JVM, using platform threads");
+                virtual = false;
+            }
+        }
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private void report(List<Worker> workers, double elapsed) {
+        System.out.printf("%-9s %9s %7s %10s %9s %9s %9s %9s %9s   %s%n", "op", "count", "errors", "ops/s",
+                "p50", "p90", "p99", "p99.9", "max", "(ms; service time p50/p99 in brackets)");
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram all_service = new LatencyHistogram();
+        long all_errors = 0;
+        for (int op = 0; op < OPS.length; op++) {
+            LatencyHistogram h = new LatencyHistogram();
+            LatencyHistogram service = new LatencyHistogram();
+            long errors = 0;
+            for (Worker w : workers) {
+                h.add(w.latency[op]);
+                service.add(w.service[op]);
+                errors += w.errors[op];
+            }
+            if (h.count() == 0 && errors == 0)
+                continue;
+            line(OPS[op], h, service, errors, elapsed);
+            all.add(h);
+            all_service.add(service);
+            all_errors += errors;
+        }
+        line("total", all, all_service, all_errors, elapsed);
+        if (all_errors > 0)
+            System.out.println("first error: " + first_error(workers));
+    }
+
+    private void line(String name, LatencyHistogram h, LatencyHistogram service, long errors, double elapsed) {
+        System.out.printf("%-9s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f   [%.2f/%.2f]%n", name, h.count(), errors,
+                h.count() / elapsed, ms(h.percentile(50)), ms(h.percentile(90)), ms(h.percentile(99)),
+                ms(h.percentile(99.9)), ms(h.max()), ms(service.percentile(50)), ms(service.percentile(99)));
+    }
+
+    private static double ms(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static Throwable first_error(List<Worker> workers) {
+        for (Worker w : workers) {
+            if (w.error != null)
+                return w.error;
+        }
+        return null;
+    }
+
+    class Worker implements Runnable {
+        final LatencyHistogram[] latency = new LatencyHistogram[OPS.length];
+        final LatencyHistogram[] service = new LatencyHistogram[OPS.length];
+        final long[] errors = new long[OPS.length];
+        Throwable error = null;
+        final int id;
+        final Random random;
+        final int[] weights = new int[OPS.length];
+        int weight_total = 0;
+        final ApiClient root;
+        final ApiClient api;
+        final Target proxy;
+        final Root pipelined;
+        final ApiClient[] things = new ApiClient[4];
+        long start, measure, end, finished;
+        CountDownLatch done;
+        int counter = 0;
+
+        Worker(int id, String endpoint) {
+            this.id = id;
+            this.random = new Random(id);
+            for (int i = 0; i < OPS.length; i++) {
+                latency[i] = new LatencyHistogram();
+                service[i] = new LatencyHistogram();
+                Integer w = mix.get(OPS[i]);
+                weights[i] = (w == null) ? 0 : w;
+                weight_total += weights[i];
+            }
+            // one session per worker, like one user per gateway connection
+            root = ApiClient.with_session(endpoint, new Session());
+            api = (ApiClient) root.get("api");
+            if (api == null)
+                throw new IllegalStateException("could not reach " + endpoint);
+            proxy = api.proxy(Target.class);
+            pipelined = root.proxy(Root.class, true);
+            if (funcs.contains("object")) {
+                for (int i = 0; i < things.length; i++) {
+                    things[i] = (ApiClient) api.call_nocache("object", id * things.length + i);
+                }
+            }
+        }
+
+        void schedule(long start, long measure, long end, CountDownLatch done) {
+            this.start = start;
+            this.measure = measure;
+            this.end = end;
+            this.done = done;
+        }
+
+        public void run() {
+            try {
+                long interval = (rate > 0) ? (long) (1e9 * threads / rate) : 0;
+                // spread the threads' schedules over one interval
+                long next = start + ((interval > 0) ? interval * id / threads : 0);
+                while (true) {
+                    long intended;
+                    if (interval > 0) {
+                        intended = next;
+                        next += interval;
+                        long wait = intended - System.nanoTime();
+                        if (wait > 0)
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    } else {
+                        intended = Math.max(System.nanoTime(), start);
+                        long wait = intended - System.nanoTime();
+                        if (wait > 0)
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                    if (intended >= end)
+                        break;
+                    int op = pick();
+                    long sent = System.nanoTime();
+                    boolean ok;
+                    try {
+                        ok = execute(op);
+                    } catch (Throwable t) {
+                        if (error == null)
+                            error = t;
+                        ok = false;
+                    }
+                    long received = System.nanoTime();
+                    if (intended < measure)
+                        continue;
+                    if (ok) {
+                        latency[op].record((received - intended) / 1000);
+                        service[op].record((received - sent) / 1000);
+                    } else {
+                        errors[op]++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopping early
+            } finally {
+                finished = System.nanoTime();
+                done.countDown();
+            }
+        }
+
+        private int pick() {
+            int r = random.nextInt(weight_total);
+            for (int i = 0; i < weights.length; i++) {
+                if (r < weights[i])
+                    return i;
+                r -= weights[i];
+            }
+            return 0;
+        }
+
+        private String arg() {
+            // distinct arguments so the client's result cache never answers
+            String s = Integer.toString(counter++);
+            StringBuilder sb = new StringBuilder(payload + s.length());
+            sb.append(s);
+            while (sb.length() < payload) {
+                sb.append('x');
+            }
+            return sb.toString();
+        }
+
+        private boolean execute(int op) {
+            String name = OPS[op];
+            if (name.equals("call")) {
+                return api.call_nocache("echo", arg()) != null;
+            } else if (name.equals("proxy")) {
+                return proxy.echo(arg()) != null;
+            } else if (name.equals("batch")) {
+                final String a = arg(), b = arg(), c = arg();
+                List<Object> results = api.batch(new BatchCallRunnable() {
+                    @Override
+                    public void run(BatchClient r) {
+                        r.call("echo", a);
+                        r.call("echo", b);
+                        r.call("echo", c);
+                    }
+                });
+                return results != null && results.size() == 3;
+            } else if (name.equals("attr")) {
+                ApiClient t = things[random.nextInt(things.length)];
+                if (random.nextInt(4) == 0) {
+                    t.set("x", counter++);
+                    return true;
+                }
+                return t.get_nocache("blob") != null;
+            } else if (name.equals("snapshot")) {
+                return ApiClient.snapshot(things).size() == things.length;
+            } else if (name.equals("raw")) {
+                return api.call_raw("echo", arg()).length() > 0;
+            } else if (name.equals("payload")) {
+                // the response size is set by the server's side of the call, not the request's
+                return ((String) api.call_nocache("payload", payload)).length() == payload;
+            } else {
+                // three hops, one round trip
+                return pipelined.api().object(random.nextInt(object_count)).echo(arg()) != null;
+            }
+        }
+    }
+}
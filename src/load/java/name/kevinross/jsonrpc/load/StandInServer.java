@@ -0,0 +1,367 @@
+package name.kevinross.jsonrpc.load;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for a jsonrpcrmi server, enough for ApiClient to run against: __interface__,
+ * hash: object references, attribute access through globals, batches and pipelined batches.
+ *
+ * The root object (served at /api) has the attributes "api" and "globals". "api" has the functions
+ * echo(val), payload(n) and object(i), plus a few plain attributes; object(i) returns one of a fixed
+ * set of objects shaped like "api". Every request is delayed by latency plus up to jitter milliseconds.
+ *
+ * For tests it can also be made flaky: fail(method, n) answers the next n requests calling method
+ * with a 503, and requests(method) counts the requests that called it, failed or not.
+ */
+public class StandInServer {
+    private final HttpServer server;
+    private final ExecutorService pool;
+    private final ConcurrentHashMap<Integer, StandIn> objects = new ConcurrentHashMap<Integer, StandIn>();
+    private final AtomicInteger next_hash = new AtomicInteger(1000);
+    private final Gson gson = new GsonBuilder().serializeNulls().create();
+    private final Random random = new Random();
+    private final StandIn root;
+    private final StandIn[] pooled;
+    private final long latency;
+    private final long jitter;
+    private final int payload;
+    private final ConcurrentHashMap<String, AtomicInteger> failures = new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentHashMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private volatile JsonElement last = null;
+
+    public StandInServer(int port, int threads, long latency, long jitter, int payload, int object_count) throws IOException {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.payload = payload;
+        StandIn globals = add(new StandIn("Globals", "getattr", "setattr", "getattrs", "setattrs", "snapshot", "echo"));
+        StandIn api = add(thing("API", 0));
+        root = add(new StandIn("API"));
+        root.attrs.put("globals", new JsonPrimitive("hash:" + globals.hash));
+        root.attrs.put("api", new JsonPrimitive("hash:" + api.hash));
+        pooled = new StandIn[object_count];
+        for (int i = 0; i < object_count; i++) {
+            pooled[i] = add(thing("Thing", i));
+        }
+        // otherwise Nagle on the server side adds ~40ms to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        pool = Executors.newFixedThreadPool(threads);
+        server.setExecutor(pool);
+        server.createContext("/api", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StandInServer.this.handle(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        pool.shutdownNow();
+    }
+
+    public String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    /**
+     * Answers the next n requests that call method (alone or in a batch) with 503 Service Unavailable.
+     */
+    public void fail(String method, int n) {
+        counter(failures, method).set(n);
+    }
+
+    public int requests(String method) {
+        return counter(requests, method).get();
+    }
+
+    /**
+     * The body of the last request, whether it failed or not.
+     */
+    public JsonElement last() {
+        return last;
+    }
+
+    private static AtomicInteger counter(ConcurrentHashMap<String, AtomicInteger> counters, String method) {
+        AtomicInteger c = counters.get(method);
+        if (c == null) {
+            counters.putIfAbsent(method, new AtomicInteger());
+            c = counters.get(method);
+        }
+        return c;
+    }
+
+    // whether req was picked to fail; counts its methods either way
+    private boolean flaky(JsonElement req) {
+        java.util.Set<String> methods = new java.util.HashSet<String>();
+        if (req.isJsonArray()) {
+            for (JsonElement call : req.getAsJsonArray()) {
+                methods.add(call.getAsJsonObject().get("method").getAsString());
+            }
+        } else {
+            methods.add(req.getAsJsonObject().get("method").getAsString());
+        }
+        boolean fail = false;
+        for (String m : methods) {
+            counter(requests, m).incrementAndGet();
+            AtomicInteger f = failures.get(m);
+            if (!fail && f != null && f.getAndDecrement() > 0)
+                fail = true;
+        }
+        return fail;
+    }
+
+    private StandIn thing(String name, int id) {
+        StandIn o = new StandIn(name, "echo", "payload", "object");
+        o.attrs.put("id", new JsonPrimitive(id));
+        o.attrs.put("name", new JsonPrimitive(name + id));
+        o.attrs.put("x", new JsonPrimitive(0));
+        o.attrs.put("y", new JsonPrimitive(0));
+        o.attrs.put("blob", new JsonPrimitive(blob(payload)));
+        return o;
+    }
+
+    private StandIn add(StandIn o) {
+        o.hash = next_hash.getAndIncrement();
+        objects.put(o.hash, o);
+        return o;
+    }
+
+    private static String blob(int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        return sb.toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] out;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            StandIn target = root;
+            if (path.length() > "/api/".length())
+                target = objects.get(Integer.valueOf(path.substring("/api/".length())));
+            JsonElement req = new JsonParser().parse(new String(read(exchange.getRequestBody()), "UTF-8"));
+            last = req;
+            delay();
+            if (flaky(req)) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            JsonElement resp;
+            if (req.isJsonArray()) {
+                JsonArray results = new JsonArray();
+                Map<Integer, JsonElement> refs = new java.util.HashMap<Integer, JsonElement>();
+                for (JsonElement call : req.getAsJsonArray()) {
+                    JsonObject result = dispatch(target, call.getAsJsonObject(), refs);
+                    if (result.has("result"))
+                        refs.put(result.get("id").getAsInt(), result.get("result"));
+                    results.add(result);
+                }
+                resp = results;
+            } else {
+                resp = dispatch(target, req.getAsJsonObject(), null);
+            }
+            out = gson.toJson(resp).getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, out.length);
+        } catch (Exception ex) {
+            out = String.valueOf(ex).getBytes("UTF-8");
+            exchange.sendResponseHeaders(500, out.length);
+        }
+        OutputStream os = exchange.getResponseBody();
+        os.write(out);
+        os.close();
+    }
+
+    private void delay() throws InterruptedException {
+        long ms = latency;
+        if (jitter > 0) {
+            synchronized (random) {
+                ms += (long) (random.nextDouble() * jitter);
+            }
+        }
+        if (ms > 0)
+            Thread.sleep(ms);
+    }
+
+    private JsonObject dispatch(StandIn target, JsonObject call, Map<Integer, JsonElement> refs) {
+        JsonObject resp = new JsonObject();
+        resp.add("id", call.get("id"));
+        resp.addProperty("jsonrpc", "2.0");
+        try {
+            boolean pipelined = refs != null && call.has("target");
+            StandIn obj = target;
+            if (pipelined && !call.get("target").isJsonNull())
+                obj = deref(ref(call.get("target").getAsInt(), refs));
+            String[] path = call.get("method").getAsString().split("\\.");
+            for (int i = 0; i < path.length - 1; i++) {
+                obj = deref(obj.attrs.get(path[i]));
+            }
+            JsonArray params = new JsonArray();
+            if (call.has("params")) {
+                for (JsonElement p : call.getAsJsonArray("params")) {
+                    // {"__ref__": id}, only in pipelined calls
+                    if (pipelined && p.isJsonObject() && p.getAsJsonObject().entrySet().size() == 1 && p.getAsJsonObject().has("__ref__"))
+                        p = ref(p.getAsJsonObject().get("__ref__").getAsInt(), refs);
+                    params.add(p);
+                }
+            }
+            String func = path[path.length - 1];
+            if (pipelined && !obj.funcs.contains(func) && !func.equals("__interface__"))
+                resp.add("result", obj.get(func));
+            else
+                resp.add("result", invoke(obj, func, params));
+        } catch (Exception ex) {
+            JsonObject data = new JsonObject();
+            data.addProperty("exception", ex.getClass().getSimpleName());
+            data.addProperty("message", String.valueOf(ex.getMessage()));
+            JsonObject error = new JsonObject();
+            error.addProperty("code", 1);
+            error.addProperty("message", "application exception");
+            error.add("data", data);
+            resp.add("error", error);
+        }
+        return resp;
+    }
+
+    private static JsonElement ref(int id, Map<Integer, JsonElement> refs) {
+        if (!refs.containsKey(id))
+            throw new IllegalArgumentException("no result for call " + id);
+        return refs.get(id);
+    }
+
+    private StandIn deref(JsonElement ref) {
+        StandIn o = objects.get(Integer.valueOf(ref.getAsString().replace("hash:", "")));
+        if (o == null)
+            throw new IllegalArgumentException("no object " + ref);
+        return o;
+    }
+
+    private JsonElement invoke(StandIn obj, String func, JsonArray params) {
+        if (func.equals("__interface__"))
+            return obj.iface();
+        if (!obj.funcs.contains(func))
+            throw new IllegalArgumentException("no function " + func);
+        if (func.equals("echo"))
+            return params.get(0);
+        if (func.equals("payload"))
+            return new JsonPrimitive(blob(params.get(0).getAsInt()));
+        if (func.equals("object"))
+            return new JsonPrimitive("hash:" + pooled[Math.abs(params.get(0).getAsInt()) % pooled.length].hash);
+        if (func.equals("getattr"))
+            return deref(params.get(0)).get(params.get(1).getAsString());
+        if (func.equals("setattr")) {
+            deref(params.get(0)).set(params.get(1).getAsString(), params.get(2));
+            return null;
+        }
+        if (func.equals("getattrs")) {
+            StandIn o = deref(params.get(0));
+            JsonObject vals = new JsonObject();
+            for (JsonElement attr : params.get(1).getAsJsonArray()) {
+                vals.add(attr.getAsString(), o.get(attr.getAsString()));
+            }
+            return vals;
+        }
+        if (func.equals("setattrs")) {
+            StandIn o = deref(params.get(0));
+            for (Map.Entry<String, JsonElement> e : params.get(1).getAsJsonObject().entrySet()) {
+                o.set(e.getKey(), e.getValue());
+            }
+            return null;
+        }
+        if (func.equals("snapshot")) {
+            JsonArray snapshots = new JsonArray();
+            for (JsonElement ref : params.get(0).getAsJsonArray()) {
+                snapshots.add(deref(ref).snapshot());
+            }
+            return snapshots;
+        }
+        throw new IllegalArgumentException("no function " + func);
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            bytes.write(buf, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static class StandIn {
+        final String name;
+        final java.util.List<String> funcs;
+        final Map<String, JsonElement> attrs = new LinkedHashMap<String, JsonElement>();
+        int hash;
+
+        StandIn(String name, String... funcs) {
+            this.name = name;
+            this.funcs = java.util.Arrays.asList(funcs);
+        }
+
+        synchronized JsonElement get(String attr) {
+            if (!attrs.containsKey(attr))
+                throw new IllegalArgumentException("no attribute " + attr);
+            return attrs.get(attr);
+        }
+
+        synchronized void set(String attr, JsonElement val) {
+            attrs.put(attr, val);
+        }
+
+        synchronized JsonObject snapshot() {
+            JsonObject vals = new JsonObject();
+            for (Map.Entry<String, JsonElement> e : attrs.entrySet()) {
+                vals.add(e.getKey(), e.getValue());
+            }
+            return vals;
+        }
+
+        synchronized JsonObject iface() {
+            JsonObject i = new JsonObject();
+            i.addProperty("name", name);
+            i.addProperty("hash", hash);
+            JsonArray f = new JsonArray();
+            for (String s : funcs) {
+                f.add(new JsonPrimitive(s));
+            }
+            i.add("funcs", f);
+            JsonArray a = new JsonArray();
+            for (String s : attrs.keySet()) {
+                a.add(new JsonPrimitive(s));
+            }
+            i.add("attrs", a);
+            return i;
+        }
+    }
+}
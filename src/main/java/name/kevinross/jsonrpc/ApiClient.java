@@ -9,6 +9,7 @@ import java.util.LinkedList;
 
 public class ApiClient extends RpcClient {
     public static ApiClient global_client = null;
+    private ResolvableMaterializer materializer = null;
 
     public ApiClient(String base_endpoint) {
         super(base_endpoint);
@@ -21,6 +22,17 @@ public class ApiClient extends RpcClient {
         super(base_endpoint, endpoint);
     }
 
+    public ApiClient(String base_endpoint, String endpoint, HttpInterface session) {
+        super(base_endpoint, endpoint, session);
+    }
+
+    /**
+     * A client bound to session; it never becomes the global client.
+     */
+    public static ApiClient with_session(String base_endpoint, HttpInterface session) {
+        return new ApiClient(base_endpoint, null, session);
+    }
+
     public static RootInterface Root() {
         return (RootInterface) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(), new Class[]{RootInterface.class}, new ProxyHandler(global_client));
     }
@@ -29,6 +41,18 @@ public class ApiClient extends RpcClient {
         return (RootInterface) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(), new Class[]{RootInterface.class}, new ProxyHandler(new ApiClient(base_endpoint)));
     }
 
+    public static RootInterface Root(String base_endpoint, HttpInterface session) {
+        return (RootInterface) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(), new Class[]{RootInterface.class}, new ProxyHandler(with_session(base_endpoint, session)));
+    }
+
+    /**
+     * A root proxy that queues calls returning remote objects and sends each chain as one batch
+     * when a plain value is first needed.
+     */
+    public static RootInterface Root(String base_endpoint, boolean pipelined) {
+        return new ApiClient(base_endpoint).proxy(RootInterface.class, pipelined);
+    }
+
     public static <ApiClass extends PythonMagic> ApiClass API(Class<ApiClass> clazz) {
         if (global_client == null)
             throw new RuntimeException("must have created at least one ApiClient first!");
@@ -54,12 +78,18 @@ public class ApiClient extends RpcClient {
         return (ApiClass) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(), new Class[]{c}, new ProxyHandler<ApiClass>(this));
     }
 
+    public <ApiClass extends PythonMagic> ApiClass proxy(Class<ApiClass> c, boolean pipelined) {
+        return (ApiClass) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(), new Class[]{c}, new ProxyHandler<ApiClass>(this, null, pipelined));
+    }
+
     public Object[] __marshall_args__(Object... oargs) {
         Object[] args = super.__marshall_args__(oargs);
         LinkedList<Object> argsList = new LinkedList<Object>();
         for (int i = 0; i < args.length; i++) {
-            if (args[i] instanceof ApiClient) {
-                argsList.add(String.format("hash:%s", ((ApiClient) args[i]).interface_().hash));
+            if (ProxyHandler.handler(args[i]) != null) {
+                argsList.add(ProxyHandler.handler(args[i]).client().__ref__());
+            } else if (args[i] instanceof ApiClient) {
+                argsList.add(((ApiClient) args[i]).__ref__());
             } else if (args[i] instanceof Resolvable) {
                 ObjectRef<Resolvable> ref = new ObjectRef<Resolvable>();
                 ref.one = true;
@@ -77,37 +107,13 @@ public class ApiClient extends RpcClient {
     }
 
     public Object __resolve_references__(String resp) {
-        Resolvable objs[] = null;
-        JsonParser parser = new JsonParser();
-        JsonElement jsonobj = parser.parse(resp);
-        boolean isarray = jsonobj.isJsonArray();
-        if (isarray) {
-            objs = gson.fromJson(resp, Resolvable[].class);
-        } else {
-            objs = new Resolvable[1];
-            objs[0] = gson.fromJson(resp, Resolvable.class);
-        }
-        LinkedList<Resolvable> objects = new LinkedList<Resolvable>();
-        for (int i = 0; i < objs.length; i++) {
-            Resolvable obj = objs[i];
-            try {
-                @SuppressWarnings("unchecked")
-                Class<? extends Resolvable> klass = (Class<? extends Resolvable>) Class.forName(obj.__meta__.package_ + obj.__meta__.name);
-                if (isarray) {
-                    objects.add(gson.fromJson(jsonobj.getAsJsonArray().get(i), klass));
-                } else {
-                    objects.add(gson.fromJson(jsonobj, klass));
-                }
-            } catch (ClassNotFoundException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
-        }
-        if (objects.size() == 1) {
-            return objects.get(0);
-        } else {
-            return objects;
-        }
+        return __resolve_references__(new JsonParser().parse(resp));
+    }
+
+    public Object __resolve_references__(JsonElement value) {
+        if (materializer == null)
+            materializer = ResolvableMaterializer.of(gson);
+        return materializer.materialize(value);
     }
 
     interface C extends PythonMagic {
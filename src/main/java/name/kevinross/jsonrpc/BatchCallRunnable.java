@@ -4,5 +4,5 @@ package name.kevinross.jsonrpc;
  * Created by r0ssar00 on 2014-04-19.
  */
 public abstract class BatchCallRunnable {
-    abstract void run(BatchClient r);
+    public abstract void run(BatchClient r);
 }
@@ -13,17 +13,28 @@ public class BatchClient extends ApiClient {
 
     RpcClient client;
     public BatchClient(RpcClient c) {
-        super(c.endpoint);
+        // never the global client, it may carry one user's session
+        super(c.base_endpoint, suffix(c), c.session());
         client = c;
     }
+    private static String suffix(RpcClient c) {
+        return (c.endpoint.length() > c.base_endpoint.length()) ? c.endpoint.substring(c.base_endpoint.length() + 1) : null;
+    }
 
     public Object val(BatchResultRunnable r) {
         FunctionCall f = this.batch.get((Integer)r.run());
         return this.__rpccall__(f);
     }
+    // retries apply to the batch as a whole, see RpcClient.__batch_policy__
+    @Override
+    public BatchResultRunnable call(RetryPolicy policy, String func, Object... args) {
+        return queue(new FunctionCall(func, args).retry(policy));
+    }
     @Override
     public BatchResultRunnable call(String func, Object... args) {
-        final FunctionCall f = new FunctionCall(func, args);
+        return queue(new FunctionCall(func, args));
+    }
+    private BatchResultRunnable queue(final FunctionCall f) {
         batch.add(f);
         final int i = batch.size() - 1;
         return new BatchResultRunnable(this) {
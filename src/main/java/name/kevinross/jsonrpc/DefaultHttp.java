@@ -6,6 +6,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -13,6 +14,7 @@ import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.BasicHttpContext;
@@ -27,30 +29,52 @@ public class DefaultHttp implements HttpInterface {
 	static {
 		params_ = new BasicHttpParams();
 		ConnManagerParams.setMaxTotalConnections(params_, 100);
+		// every session talks to the same backend, so one route gets the whole pool
+		ConnManagerParams.setMaxConnectionsPerRoute(params_, new ConnPerRouteBean(100));
         HttpProtocolParams.setVersion(params_, HttpVersion.HTTP_1_1);
+		// requests are small and latency bound; don't let Nagle hold the body back
+		HttpConnectionParams.setTcpNoDelay(params_, true);
 
         SchemeRegistry schemeRegistry = new SchemeRegistry();
         schemeRegistry.register(
                 new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
         cm_ = new ThreadSafeClientConnManager(params_, schemeRegistry);
 	}
+	/**
+	 * The connection pool shared by the default client and every Session.
+	 */
+	public static ClientConnectionManager connections() {
+		return cm_;
+	}
+	public static HttpParams params() {
+		return params_;
+	}
 	public HttpClient client() {
-		if (client_ == null) {
-			context();
-			client_ = new DefaultHttpClient(cm_, params_);
+		synchronized (DefaultHttp.class) {
+			if (client_ == null) {
+				client_ = new DefaultHttpClient(cm_, params_);
+			}
 		}
 		return client_;
 	}
+	/**
+	 * A fresh context per request; requests write their own state into the context, only the
+	 * cookie store underneath is shared.
+	 */
 	public HttpContext context() {
-		if (context_ == null) {
-			context_ = new BasicHttpContext();
-			context_.setAttribute(ClientContext.COOKIE_STORE, jar());
+		synchronized (DefaultHttp.class) {
+			if (context_ == null) {
+				context_ = new BasicHttpContext();
+				context_.setAttribute(ClientContext.COOKIE_STORE, jar());
+			}
 		}
-		return context_;
+		return new BasicHttpContext(context_);
 	}
 	public CookieStore jar() {
-		if (jar_ == null)
-			jar_ = new BasicCookieStore();
+		synchronized (DefaultHttp.class) {
+			if (jar_ == null)
+				jar_ = new BasicCookieStore();
+		}
 		return jar_;
 	}
 }
@@ -4,8 +4,11 @@ public class FunctionCall {
     public static int global_id = 0;
 	public String method;
 	public Object[] params;
-    public int id = global_id++;
+    public int id = next_id();
     public final String jsonrpc = "2.0";
+	// lets the server recognize a retried call it already ran
+	public String idempotency_key = null;
+	transient RetryPolicy retry = null;
 	public FunctionCall() {
 		method = "";
         params = new Object[]{};
@@ -14,6 +17,13 @@ public class FunctionCall {
 		this.method = method;
 		this.params = args;
 	}
+	public FunctionCall retry(RetryPolicy policy) {
+		this.retry = policy;
+		return this;
+	}
+	private static synchronized int next_id() {
+		return global_id++;
+	}
 	public String toString() {
 		String val = method + "(";
 		for (Object i : params) {
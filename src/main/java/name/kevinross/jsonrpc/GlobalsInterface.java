@@ -1,6 +1,7 @@
 package name.kevinross.jsonrpc;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Kevin Ross on 2014-04-22.
@@ -11,4 +12,7 @@ public interface GlobalsInterface extends PythonMagic {
     public String echo(String s);
     public Object getattr(String obj, String attr);
     public void setattr(String obj, String attr, Object val);
+    public Map<String, Object> getattrs(String obj, String[] attrs);
+    public void setattrs(String obj, Map<String, Object> vals);
+    public List<Map<String, Object>> snapshot(String[] objs);
 }
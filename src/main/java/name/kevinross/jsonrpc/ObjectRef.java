@@ -1,6 +1,6 @@
 package name.kevinross.jsonrpc;
 
-import java.util.LinkedList;
+import java.util.List;
 
 public class ObjectRef<T extends Resolvable> {
 	public SqlRef sqlref;
@@ -14,9 +14,9 @@ public class ObjectRef<T extends Resolvable> {
 		return (T) ApiClient.global_client.__rpccall__(ApiClient.global_client.base_endpoint, func);
 	}
 	@SuppressWarnings("unchecked")
-	LinkedList<T> objects() {
+	List<T> objects() {
 		FunctionCall func = new FunctionCall("api.database.get", sqlref.name, sqlref.items);
-		return (LinkedList<T>)ApiClient.global_client.__rpccall__(ApiClient.global_client.base_endpoint, func);
+		return (List<T>)ApiClient.global_client.__rpccall__(ApiClient.global_client.base_endpoint, func);
 	}
 	
 }
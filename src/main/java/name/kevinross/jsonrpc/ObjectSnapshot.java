@@ -0,0 +1,52 @@
+package name.kevinross.jsonrpc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local view of a remote object's attributes as of one globals.snapshot call.
+ */
+public class ObjectSnapshot {
+    private final RpcClient source;
+    private final Map<String, Object> values;
+    private final HashMap<String, Object> converted = new HashMap<String, Object>();
+
+    ObjectSnapshot(RpcClient source, Map<String, Object> values) {
+        this.source = source;
+        this.values = values;
+    }
+
+    public RpcClient source() {
+        return source;
+    }
+
+    public Set<String> attrs() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    public boolean has(String attr) {
+        return values.containsKey(attr);
+    }
+
+    /**
+     * Value of attr as get() would return it; remote references are only turned into clients when read.
+     */
+    public synchronized Object get(String attr) {
+        if (!converted.containsKey(attr))
+            converted.put(attr, source.__value__(values.get(attr)));
+        return converted.get(attr);
+    }
+
+    /**
+     * The values as decoded from the response, without reference or date conversion.
+     */
+    public Map<String, Object> values() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    public String toString() {
+        return String.format("<ObjectSnapshot %s %s>", source.endpoint, values);
+    }
+}
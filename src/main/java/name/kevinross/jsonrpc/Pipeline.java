@@ -0,0 +1,97 @@
+package name.kevinross.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calls queued by pipelined proxies, sent to the server as one batch the first time any of their
+ * results is needed.
+ */
+public class Pipeline {
+    private final ApiClient anchor;
+    private final List<PipelinedCall> calls = new ArrayList<PipelinedCall>();
+    private List<Object> results = null;
+
+    public Pipeline(ApiClient anchor) {
+        this.anchor = anchor;
+    }
+
+    public ApiClient anchor() {
+        return anchor;
+    }
+
+    public synchronized boolean flushed() {
+        return results != null;
+    }
+
+    public synchronized PipelinedCall add(Integer target, String method, Object... args) {
+        PipelinedCall call = offer(target, method, args);
+        if (call == null)
+            throw new IllegalStateException("pipeline already sent");
+        return call;
+    }
+
+    /**
+     * Like add, but returns null instead of throwing when the pipeline has already been sent.
+     */
+    synchronized PipelinedCall offer(Integer target, String method, Object[] args) {
+        if (results != null)
+            return null;
+        PipelinedCall call = new PipelinedCall(target, method, args);
+        calls.add(call);
+        return call;
+    }
+
+    /**
+     * Replaces placeholders queued on this pipeline with references to their calls; other
+     * placeholders are resolved so they marshall as ordinary remote objects.
+     */
+    public Object[] refs(Object[] args) {
+        if (args == null)
+            return new Object[]{};
+        Object[] out = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            ProxyHandler h = ProxyHandler.handler(args[i]);
+            PipelinedCall pending = (h == null) ? null : h.pending(this);
+            if (h == null) {
+                out[i] = args[i];
+            } else if (pending != null) {
+                out[i] = pending.ref();
+            } else {
+                out[i] = h.client();
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The call's result; throws its RemoteException if it failed, other calls in the pipeline
+     * keep theirs.
+     */
+    public synchronized Object result(PipelinedCall call) {
+        if (results == null)
+            flush();
+        return value(results.get(calls.indexOf(call)));
+    }
+
+    /**
+     * The result as a RawResult; if the pipeline hasn't been sent yet none of its results are decoded.
+     */
+    public synchronized RawResult result_raw(PipelinedCall call) {
+        if (results == null)
+            results = anchor.__rpccall_batch_raw_each__(anchor.endpoint, calls);
+        return (RawResult) value(results.get(calls.indexOf(call)));
+    }
+
+    public synchronized void flush() {
+        if (results != null)
+            return;
+        results = anchor.__rpccall_batch_each__(anchor.endpoint, calls);
+    }
+
+    private static Object value(Object result) {
+        if (result instanceof RemoteException)
+            throw (RemoteException) result;
+        return result;
+    }
+}
@@ -0,0 +1,24 @@
+package name.kevinross.jsonrpc;
+
+/**
+ * A call in a pipelined batch. The server runs it on the result of the call whose id is target,
+ * or on the object the batch was posted to when target is null; a {"__ref__": id} parameter stands
+ * for the result of an earlier call in the same batch.
+ */
+public class PipelinedCall extends FunctionCall {
+	public Integer target;
+	public PipelinedCall(Integer target, String method, Object... args) {
+		super(method, args);
+		this.target = target;
+	}
+	public Ref ref() {
+		return new Ref(id);
+	}
+	// marshalls as {"__ref__": id}, which no ordinary string argument can be mistaken for
+	public static class Ref {
+		public final int __ref__;
+		public Ref(int id) {
+			this.__ref__ = id;
+		}
+	}
+}
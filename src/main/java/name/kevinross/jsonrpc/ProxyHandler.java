@@ -3,14 +3,23 @@ package name.kevinross.jsonrpc;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Kevin Ross on 2014-04-22.
  */
 public class ProxyHandler <ApiType extends PythonMagic> implements InvocationHandler {
+    private static final ConcurrentHashMap<Method, RetryPolicy> policies = new ConcurrentHashMap<Method, RetryPolicy>();
     private ApiClient client;
     private Class api_iface;
+    // pipelined proxies queue calls returning remote objects instead of making them
+    private boolean pipelined = false;
+    private Pipeline pipeline = null;
+    private PipelinedCall pending = null;
+    // the proxy pending was called on
+    private ProxyHandler parent = null;
     public ProxyHandler(ApiClient c) {
         client = c;
     }
@@ -18,13 +27,84 @@ public class ProxyHandler <ApiType extends PythonMagic> implements InvocationHan
         client = c;
         api_iface = api_interface;
     }
+    public ProxyHandler(ApiClient c, Class api_interface, boolean pipelined) {
+        this(c, api_interface);
+        this.pipelined = pipelined;
+    }
+    // placeholder for the object call will return
+    ProxyHandler(Pipeline p, PipelinedCall call, Class api_interface, ProxyHandler parent) {
+        pipeline = p;
+        pending = call;
+        this.parent = parent;
+        api_iface = api_interface;
+        pipelined = true;
+    }
+    static ProxyHandler handler(Object proxy) {
+        if (proxy == null || !Proxy.isProxyClass(proxy.getClass()))
+            return null;
+        InvocationHandler h = Proxy.getInvocationHandler(proxy);
+        return (h instanceof ProxyHandler) ? (ProxyHandler) h : null;
+    }
+    /**
+     * The client behind this proxy, sending the pipeline it waits on if need be. Throws
+     * IllegalStateException if the call this proxy stands for didn't return a remote object.
+     */
+    public synchronized ApiClient client() {
+        if (client == null) {
+            Object result = parent.settle(pipeline, pending);
+            Object c = (result instanceof RawResult) ? ((RawResult) result).client() : result;
+            if (!(c instanceof ApiClient))
+                throw new IllegalStateException(pending.method + " returned " + result + ", not a remote object");
+            client = (ApiClient) c;
+            pipeline = null;
+            pending = null;
+            parent = null;
+        }
+        return client;
+    }
+    // the result of call, made on this proxy; if it failed because this proxy is a placeholder
+    // that didn't get a remote object, that is the error thrown
+    private Object settle(Pipeline p, PipelinedCall call) {
+        try {
+            return p.result(call);
+        } catch (RemoteException e) {
+            client();
+            throw e;
+        }
+    }
+    // from the method's Retry annotation, null when it has none
+    static RetryPolicy policy(Method method) {
+        RetryPolicy policy = policies.get(method);
+        if (policy == null) {
+            Retry r = method.getAnnotation(Retry.class);
+            policy = (r == null) ? RetryPolicy.NONE : RetryPolicy.of(r);
+            policies.putIfAbsent(method, policy);
+        }
+        return (policy == RetryPolicy.NONE) ? null : policy;
+    }
+    synchronized PipelinedCall pending(Pipeline p) {
+        return (pipeline == p && !p.flushed()) ? pending : null;
+    }
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (pipelined)
+            return invoke_pipelined(method, args);
+        ApiClient client = client();
         Object result = null;
         Class cl = method.getReturnType();
         Class[] pcl = cl.getInterfaces();
+        if (raw(cl)) {
+            RawResult raw;
+            if (Arrays.asList(client.interface_().attrs).contains(method.getName()))
+                raw = client.get_raw(method.getName());
+            else
+                raw = client.call_raw(policy(method), method.getName(), args);
+            return unwrap(cl, raw);
+        }
         if (Arrays.asList(client.interface_().attrs).contains(method.getName()))
             result = client.get(method.getName());
+        else if (policy(method) != null)
+            result = client.call(policy(method), method.getName(), args);
         else
             result = client.call(method.getName(), args);
         if (result instanceof ApiClient) {
@@ -36,4 +116,49 @@ public class ProxyHandler <ApiType extends PythonMagic> implements InvocationHan
         }
         return result;
     }
+    private Object invoke_pipelined(Method method, Object[] args) {
+        Pipeline p = null;
+        PipelinedCall call = null;
+        // another thread may send the pipeline before the call is queued, then it goes in a new one
+        while (call == null) {
+            Integer target = null;
+            synchronized (this) {
+                if (pending != null && !pipeline.flushed()) {
+                    p = pipeline;
+                    target = pending.id;
+                } else {
+                    p = null;
+                }
+            }
+            if (p == null)
+                p = new Pipeline(client());
+            // no need to know whether the name is a function or an attribute, the server works it out
+            call = p.offer(target, method.getName(), p.refs(args));
+        }
+        call.retry(policy(method));
+        Class ret = method.getReturnType();
+        if (ret.isInterface() && PythonMagic.class.isAssignableFrom(ret)) {
+            if (method.getName().contentEquals("api") && api_iface != null)
+                ret = api_iface;
+            return Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(), new Class[]{ret}, new ProxyHandler<ApiType>(p, call, api_iface, this));
+        }
+        if (raw(ret)) {
+            try {
+                return unwrap(ret, p.result_raw(call));
+            } catch (RemoteException e) {
+                client();
+                throw e;
+            }
+        }
+        return settle(p, call);
+    }
+    // methods declared to return RawResult or ByteBuffer get the result undecoded
+    private static boolean raw(Class ret) {
+        return ret == RawResult.class || ret == ByteBuffer.class;
+    }
+    private static Object unwrap(Class ret, RawResult raw) {
+        if (ret == ByteBuffer.class && raw != null)
+            return raw.buffer();
+        return raw;
+    }
 }
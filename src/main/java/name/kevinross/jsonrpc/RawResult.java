@@ -0,0 +1,227 @@
+package name.kevinross.jsonrpc;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The "result" member of a response, left as the bytes of the response body so it can be relayed
+ * without decoding and re-encoding it. Responses are only scanned far enough to find the member,
+ * raise errors as RemoteException and recognize a top-level "hash:" reference.
+ *
+ *     RawResult r = client.call_raw("list_cars");
+ *     r.writeTo(response.getOutputStream());
+ */
+public class RawResult {
+    private final RpcClient source;
+    private final byte[] body;
+    private final int offset;
+    private final int length;
+    private RpcClient remote = null;
+
+    RawResult(RpcClient source, byte[] body, int offset, int length) {
+        this.source = source;
+        this.body = body;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Read-only view of the result's JSON text (UTF-8) over the response body; nothing is copied.
+     */
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(body, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    public byte[] bytes() {
+        byte[] b = new byte[length];
+        System.arraycopy(body, offset, b, 0, length);
+        return b;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(body, offset, length);
+    }
+
+    /**
+     * Whether the result is a reference to a remote object rather than a value.
+     */
+    public boolean remote() {
+        return startsWith("\"hash:");
+    }
+
+    /**
+     * The client for a remote object result, null for plain values.
+     */
+    public synchronized RpcClient client() {
+        if (remote == null && remote())
+            remote = source.__remote__(new JsonParser().parse(toString()).getAsString());
+        return remote;
+    }
+
+    public String toString() {
+        return RpcClient.utf8(body, offset, length);
+    }
+
+    private boolean startsWith(String prefix) {
+        if (length < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (body[offset + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    static RawResult one(RpcClient source, byte[] body) {
+        return one(source, body, 0, body.length);
+    }
+
+    /**
+     * The result of each response in a batch response, or of the single response.
+     */
+    static List<RawResult> all(RpcClient source, byte[] body) {
+        return (List) responses(source, body, false);
+    }
+
+    /**
+     * Like all, but an error only fails its own call: its RemoteException takes the place of the result.
+     */
+    static List<Object> each(RpcClient source, byte[] body) {
+        return responses(source, body, true);
+    }
+
+    private static List<Object> responses(RpcClient source, byte[] body, boolean each) {
+        List<Object> results = new ArrayList<Object>();
+        int i = ws(body, 0, body.length);
+        if (i >= body.length || body[i] != '[') {
+            results.add(one(source, body, 0, body.length));
+            return results;
+        }
+        i = ws(body, i + 1, body.length);
+        while (true) {
+            if (i >= body.length)
+                throw malformed("unterminated batch response", body, 0, body.length);
+            if (body[i] == ']')
+                break;
+            int start = i;
+            i = skip(body, i, body.length);
+            try {
+                results.add(one(source, body, start, i));
+            } catch (RemoteException e) {
+                if (!each)
+                    throw e;
+                results.add(e);
+            }
+            i = ws(body, i, body.length);
+            if (i < body.length && body[i] == ',')
+                i = ws(body, i + 1, body.length);
+            else if (i < body.length && body[i] != ']')
+                throw malformed("expected , or ] after response", body, 0, body.length);
+        }
+        return results;
+    }
+
+    // the response object spanning [start, end)
+    private static RawResult one(RpcClient source, byte[] b, int start, int end) {
+        int i = ws(b, start, end);
+        if (i >= end || b[i] != '{')
+            throw new JsonParseException("not a JSON-RPC response: " + RpcClient.utf8(b, start, end - start));
+        int result_start = -1, result_end = -1;
+        i = ws(b, i + 1, end);
+        while (true) {
+            if (i >= end)
+                throw malformed("unterminated response", b, start, end);
+            if (b[i] == '}')
+                break;
+            if (b[i] != '"')
+                throw malformed("expected a member name", b, start, end);
+            int key = i;
+            i = skip(b, i, end);
+            // member names in a response are plain ASCII, no need to unescape
+            String name = RpcClient.utf8(b, key + 1, i - key - 2);
+            i = ws(b, i, end);
+            if (i >= end || b[i] != ':')
+                throw malformed("expected : after \"" + name + "\"", b, start, end);
+            i = ws(b, i + 1, end);
+            int value = i;
+            i = skip(b, i, end);
+            if (name.equals("result")) {
+                result_start = value;
+                result_end = i;
+            } else if (name.equals("error")) {
+                throw source.__remote_exception__(new JsonParser().parse(RpcClient.utf8(b, value, i - value)));
+            }
+            i = ws(b, i, end);
+            if (i < end && b[i] == ',')
+                i = ws(b, i + 1, end);
+            else if (i < end && b[i] != '}')
+                throw malformed("expected , or } after \"" + name + "\"", b, start, end);
+        }
+        if (result_start < 0)
+            throw new JsonParseException("no result or error in response: " + RpcClient.utf8(b, start, end - start));
+        return new RawResult(source, b, result_start, result_end - result_start);
+    }
+
+    private static int ws(byte[] b, int i, int end) {
+        while (i < end && (b[i] == ' ' || b[i] == '\t' || b[i] == '\n' || b[i] == '\r'))
+            i++;
+        return i;
+    }
+
+    private static JsonParseException malformed(String what, byte[] b, int start, int end) {
+        return new JsonParseException(what + " in JSON-RPC response: " + RpcClient.utf8(b, start, end - start));
+    }
+
+    // index just past the JSON value starting at i; throws if it doesn't end before end
+    private static int skip(byte[] b, int i, int end) {
+        if (i >= end)
+            throw new JsonParseException("missing value at offset " + i);
+        int start = i;
+        byte c = b[i];
+        if (c == '"') {
+            i++;
+            while (i < end && b[i] != '"') {
+                if (b[i] == '\\')
+                    i++;
+                i++;
+            }
+            if (i >= end)
+                throw new JsonParseException("unterminated string at offset " + start);
+            return i + 1;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (i < end) {
+                c = b[i];
+                if (c == '"') {
+                    i = skip(b, i, end);
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0)
+                        return i + 1;
+                }
+                i++;
+            }
+            throw new JsonParseException("unterminated " + (b[start] == '{' ? "object" : "array") + " at offset " + start);
+        }
+        while (i < end && b[i] != ',' && b[i] != '}' && b[i] != ']' && b[i] != ' ' && b[i] != '\t' && b[i] != '\n' && b[i] != '\r')
+            i++;
+        if (i == start)
+            throw new JsonParseException("missing value at offset " + start);
+        return i;
+    }
+}
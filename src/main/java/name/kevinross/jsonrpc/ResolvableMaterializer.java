@@ -0,0 +1,152 @@
+package name.kevinross.jsonrpc;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Turns __meta__ tagged results into instances of their Resolvable subclasses.
+ *
+ * Each row is decoded once, straight into its concrete class; the class and its TypeAdapter
+ * are looked up once per package/name and Gson. Clients get their materializer from of(), so
+ * every client using the same Gson (by default all of them) shares those lookups, including the
+ * ones made for hash: references. Homogeneous lists may also arrive in the columnar form produced
+ * by jsonrpcrmi.columnar(), which saves repeating the keys in every row on the wire:
+ *
+ *     {"__meta__": {"package_": ..., "name": ...}, "__columns__": [...], "__rows__": [[meta id, values...], ...]}
+ */
+public class ResolvableMaterializer {
+    // Class.forName results are the same for every Gson, so share them
+    private static final ConcurrentHashMap<String, Class<? extends Resolvable>> classes = new ConcurrentHashMap<String, Class<? extends Resolvable>>();
+    // the values refer to their keys, so they are held weakly too; clients keep theirs alive
+    private static final Map<Gson, WeakReference<ResolvableMaterializer>> shared = new WeakHashMap<Gson, WeakReference<ResolvableMaterializer>>();
+    private final ConcurrentHashMap<String, Binding> bindings = new ConcurrentHashMap<String, Binding>();
+    private final Gson gson;
+
+    public ResolvableMaterializer(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * The materializer shared by everything using gson.
+     */
+    public static ResolvableMaterializer of(Gson gson) {
+        synchronized (shared) {
+            WeakReference<ResolvableMaterializer> ref = shared.get(gson);
+            ResolvableMaterializer m = (ref == null) ? null : ref.get();
+            if (m == null) {
+                m = new ResolvableMaterializer(gson);
+                shared.put(gson, new WeakReference<ResolvableMaterializer>(m));
+            }
+            return m;
+        }
+    }
+
+    /**
+     * Materializes a single object, a list or a columnar list. As before, a result holding a
+     * single object is returned unwrapped.
+     */
+    public Object materialize(JsonElement value) {
+        List<Resolvable> objects = all(value);
+        if (objects.size() == 1) {
+            return objects.get(0);
+        } else {
+            return objects;
+        }
+    }
+
+    public List<Resolvable> all(JsonElement value) {
+        if (value.isJsonArray()) {
+            JsonArray rows = value.getAsJsonArray();
+            List<Resolvable> objects = new ArrayList<Resolvable>(rows.size());
+            for (JsonElement row : rows) {
+                objects.add(one(row.getAsJsonObject()));
+            }
+            return objects;
+        }
+        JsonObject obj = value.getAsJsonObject();
+        if (obj.has("__columns__"))
+            return columns(obj);
+        List<Resolvable> objects = new ArrayList<Resolvable>(1);
+        objects.add(one(obj));
+        return objects;
+    }
+
+    public Resolvable one(JsonObject row) {
+        return binding(row.getAsJsonObject("__meta__")).adapter.fromJsonTree(row);
+    }
+
+    private List<Resolvable> columns(JsonObject table) {
+        JsonObject meta = table.getAsJsonObject("__meta__");
+        JsonArray names = table.getAsJsonArray("__columns__");
+        JsonArray rows = table.getAsJsonArray("__rows__");
+        List<Resolvable> objects = new ArrayList<Resolvable>(rows.size());
+        Binding b = binding(meta);
+        for (JsonElement r : rows) {
+            JsonArray row = r.getAsJsonArray();
+            if (row.size() != names.size() + 1)
+                throw new JsonParseException(String.format("columnar row has %d values for %d columns: %s", row.size() - 1, names.size(), row));
+            // rebuilt as the row columnar() was given, so gson's naming and exclusion rules apply as usual
+            JsonObject m = new JsonObject();
+            m.add("package_", meta.get("package_"));
+            m.add("name", meta.get("name"));
+            m.add("id", row.get(0));
+            JsonObject obj = new JsonObject();
+            obj.add("__meta__", m);
+            for (int i = 0; i < names.size(); i++) {
+                obj.add(names.get(i).getAsString(), row.get(i + 1));
+            }
+            objects.add(b.adapter.fromJsonTree(obj));
+        }
+        return objects;
+    }
+
+    private Binding binding(JsonObject meta) {
+        String key = meta.get("package_").getAsString() + meta.get("name").getAsString();
+        Binding b = bindings.get(key);
+        if (b != null)
+            return b;
+        Class<? extends Resolvable> klass = resolve(key);
+        b = new Binding(klass, gson.getAdapter(klass));
+        bindings.putIfAbsent(key, b);
+        return b;
+    }
+
+    // classes that can't be loaded aren't remembered, they may be loadable later
+    private static Class<? extends Resolvable> resolve(String key) {
+        Class<? extends Resolvable> klass = classes.get(key);
+        if (klass != null)
+            return klass;
+        Class<?> c;
+        try {
+            c = Class.forName(key);
+        } catch (ClassNotFoundException e) {
+            throw new JsonParseException("no class " + key + " to materialize __meta__ into", e);
+        }
+        if (!Resolvable.class.isAssignableFrom(c))
+            throw new JsonParseException(key + " named in __meta__ is not a Resolvable");
+        klass = c.asSubclass(Resolvable.class);
+        classes.putIfAbsent(key, klass);
+        return klass;
+    }
+
+    private static class Binding {
+        final Class<? extends Resolvable> klass;
+        final TypeAdapter<? extends Resolvable> adapter;
+
+        Binding(Class<? extends Resolvable> klass, TypeAdapter<? extends Resolvable> adapter) {
+            this.klass = klass;
+            this.adapter = adapter;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package name.kevinross.jsonrpc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Retries a proxy method when the request fails in transit. Delays grow exponentially from base
+ * up to max milliseconds, with full jitter. Calls that aren't idempotent carry an idempotency key
+ * so the server can answer a replay without running the call again.
+ *
+ *     interface Car extends PythonMagic {
+ *       @Retry(attempts = 5, idempotent = true)
+ *       public int cur_x();
+ *       @Retry
+ *       public void move(int x, int y);
+ *     }
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Retry {
+    int attempts() default 3;
+    long base() default 50;
+    long max() default 2000;
+    boolean idempotent() default false;
+}
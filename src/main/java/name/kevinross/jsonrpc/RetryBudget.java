@@ -0,0 +1,37 @@
+package name.kevinross.jsonrpc;
+
+/**
+ * Caps retries at a fraction of requests so a struggling server isn't buried under them. Every
+ * request earns ratio tokens, every retry spends one, and at most max tokens are saved up.
+ */
+public class RetryBudget {
+    public static RetryBudget global = new RetryBudget(0.1, 10);
+
+    private final double ratio;
+    private final double max;
+    private double tokens;
+
+    public RetryBudget(double ratio, double max) {
+        this.ratio = ratio;
+        this.max = max;
+        this.tokens = max;
+    }
+
+    public synchronized void request() {
+        tokens = Math.min(max, tokens + ratio);
+    }
+
+    /**
+     * Takes a token for one retry, or returns false if the budget is spent.
+     */
+    public synchronized boolean retry() {
+        if (tokens < 1)
+            return false;
+        tokens -= 1;
+        return true;
+    }
+
+    public synchronized double tokens() {
+        return tokens;
+    }
+}
@@ -0,0 +1,52 @@
+package name.kevinross.jsonrpc;
+
+import java.util.Random;
+
+/**
+ * How often and how patiently a call is retried after a transport failure. Application errors
+ * (RemoteException) are never retried.
+ */
+public class RetryPolicy {
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, true);
+    // reads the client makes on its own behalf: __interface__, attributes, snapshots
+    public static final RetryPolicy IDEMPOTENT = new RetryPolicy(3, 50, 1000, true);
+    private static final Random random = new Random();
+
+    public final int attempts;
+    public final long base;
+    public final long max;
+    public final boolean idempotent;
+
+    public RetryPolicy(int attempts, long base, long max, boolean idempotent) {
+        this.attempts = attempts;
+        this.base = base;
+        this.max = max;
+        this.idempotent = idempotent;
+    }
+
+    public static RetryPolicy of(Retry r) {
+        return new RetryPolicy(r.attempts(), r.base(), r.max(), r.idempotent());
+    }
+
+    /**
+     * Whether a call made under this policy needs an idempotency key to be replayed safely.
+     */
+    public boolean keyed() {
+        return attempts > 1 && !idempotent;
+    }
+
+    /**
+     * Milliseconds to wait before the given retry (1 for the first), uniformly drawn up to the
+     * exponential bound so clients that failed together don't retry together.
+     */
+    public long backoff(int retry) {
+        double bound = Math.min((double) max, base * Math.pow(2, retry - 1));
+        synchronized (random) {
+            return (long) (random.nextDouble() * bound);
+        }
+    }
+
+    public String toString() {
+        return String.format("<RetryPolicy attempts=%d base=%d max=%d idempotent=%s>", attempts, base, max, idempotent);
+    }
+}
@@ -6,6 +6,8 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
@@ -19,17 +21,40 @@ import java.lang.reflect.Type;
 import java.net.InetAddress;
 import java.net.URI;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public abstract class RpcClient {
 	protected String base_endpoint = null;
 	public String endpoint = null;
 	private HashMap<String, HashMap<ArrayWrapper, Object>> cache = null;
+    // null uses the process-wide Http transport
+    protected HttpInterface http = null;
 	public Interface interface__ = null;
     public boolean can_connect = false;
-	protected Gson gson = new GsonBuilder().serializeNulls().registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
+    // for calls that don't bring their own, see Retry
+    public RetryPolicy retry_policy = RetryPolicy.NONE;
+    // attribute writes waiting for commit(), null when writing through
+    private LinkedHashMap<String, Object> dirty = null;
+    private long write_behind_timeout = 0;
+    private TimerTask write_behind_task = null;
+    private RuntimeException write_behind_error = null;
+    private static Timer write_behind_timer = null;
+    private static ExecutorService write_behind_pool = null;
+    // held for the whole of a commit, never while the client's own monitor is
+    private final Object commit_lock = new Object();
+	// shared so every client reuses the same type adapters and ResolvableMaterializer
+	private static final Gson default_gson = new GsonBuilder().serializeNulls().registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
+	protected Gson gson = default_gson;
 	public RpcClient(String base_endpoint) {
 		this(base_endpoint, null);
 	}
@@ -39,9 +64,31 @@ public abstract class RpcClient {
         cache = new HashMap<String, HashMap<ArrayWrapper, Object>>();
         can_connect = canConnect();
 	}
+	public RpcClient(String base_endpoint, String endpoint, HttpInterface session) {
+		this(base_endpoint, endpoint);
+		session(session);
+	}
+    /**
+     * Sends this client's calls through session; a Session also lends its result cache.
+     */
+    public RpcClient session(HttpInterface session) {
+        this.http = session;
+        if (session instanceof Session)
+            this.cache = ((Session) session).cache();
+        return this;
+    }
+    public HttpInterface session() {
+        return this.http;
+    }
+    protected HttpClient http_client() {
+        return (http == null) ? Http.client() : http.client();
+    }
+    protected HttpContext http_context() {
+        return (http == null) ? Http.context() : http.context();
+    }
     public Interface interface_() {
         if (this.interface__ == null)
-            this.interface__ = (Interface) __rpccall__(new FunctionCall("__interface__"));
+            this.interface__ = (Interface) __rpccall__(new FunctionCall("__interface__").retry(RetryPolicy.IDEMPOTENT));
         return this.interface__;
     }
     public void load_cache(FileInputStream fi) {
@@ -73,6 +120,9 @@ public abstract class RpcClient {
         return args;
     }
 	public abstract Object __resolve_references__(String obj);
+    public Object __resolve_references__(JsonElement value) {
+        return __resolve_references__(gson.toJson(value));
+    }
 	public Object __parse_response__(String resp) throws RemoteException {
 		JsonParser parser = new JsonParser();
 		JsonElement main_response = (JsonElement) parser.parse(resp);
@@ -85,40 +135,13 @@ public abstract class RpcClient {
         }
         JsonObject response = main_response.getAsJsonObject();
         if (response.has("error")) {
-            JsonObject e = response.get("error").getAsJsonObject().get("data").getAsJsonObject();
-            throw new RemoteException(e.get("exception").getAsString(), e.get("message").getAsString());
+            throw __remote_exception__(response.get("error"));
         }
 		JsonElement value = response.get("result");
-		String valuestr = gson.toJson(response.get("result"));
-		if (valuestr.contains("hash:")) {
-			Class<? extends RpcClient> klass = this.getClass();
-			try {
-				Constructor<? extends RpcClient> m = klass.getDeclaredConstructor(String.class, String.class);
-				String new_endpoint = gson.fromJson(value, String.class);
-				return m.newInstance(this.base_endpoint, new_endpoint.replace("hash:", ""));
-			} catch (NoSuchMethodException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return null;
-			} catch (IllegalArgumentException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return null;
-			} catch (InstantiationException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return null;
-			} catch (IllegalAccessException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return null;
-			} catch (InvocationTargetException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				return null;
-			}
-		} else if (valuestr.contains("funcs")) {
-			return gson.fromJson(valuestr, Interface.class);
+		if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isString() && value.getAsString().startsWith("hash:")) {
+			return __remote__(value.getAsString());
+		} else if (value.isJsonObject() && value.getAsJsonObject().has("funcs")) {
+			return gson.fromJson(value, Interface.class);
 		}
 		if (value.isJsonPrimitive()) {
 			JsonPrimitive val = value.getAsJsonPrimitive();
@@ -144,29 +167,103 @@ public abstract class RpcClient {
 			if (value.getAsJsonArray().size() == 0)
 				return new LinkedList();
 			JsonElement obj = value.getAsJsonArray().get(0);
-			if (obj.isJsonObject()) {
-				if (!obj.getAsJsonObject().has("__meta__")) {
-					return gson.fromJson(value, LinkedList.class);
-				}
+			if (!obj.isJsonObject() || !obj.getAsJsonObject().has("__meta__")) {
+				return gson.fromJson(value, LinkedList.class);
 			}
 		}
-		return __resolve_references__(valuestr);
+		return __resolve_references__(value);
 	}
+    public RemoteException __remote_exception__(JsonElement error) {
+        JsonObject e = error.getAsJsonObject().get("data").getAsJsonObject();
+        return new RemoteException(e.get("exception").getAsString(), e.get("message").getAsString());
+    }
+    /**
+     * Builds a client of this client's class for a "hash:" reference returned by the server.
+     */
+    public RpcClient __remote__(String ref) {
+        Class<? extends RpcClient> klass = this.getClass();
+        try {
+            Constructor<? extends RpcClient> m = klass.getDeclaredConstructor(String.class, String.class);
+            return m.newInstance(this.base_endpoint, ref.replace("hash:", "")).session(this.http);
+        } catch (NoSuchMethodException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+            return null;
+        } catch (IllegalArgumentException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+            return null;
+        } catch (InstantiationException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+            return null;
+        } catch (IllegalAccessException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+            return null;
+        } catch (InvocationTargetException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+            return null;
+        }
+    }
+    /**
+     * The "hash:" reference the server knows this object by. Clients created from a reference
+     * carry the hash in their endpoint, so this only costs an __interface__ call for named endpoints.
+     */
+    public String __ref__() {
+        if (this.interface__ == null && this.endpoint.length() > this.base_endpoint.length() + 1) {
+            String suffix = this.endpoint.substring(this.base_endpoint.length() + 1);
+            if (suffix.matches("-?[0-9]+"))
+                return "hash:" + suffix;
+        }
+        return String.format("hash:%d", this.interface_().hash);
+    }
+    /**
+     * Applies the top-level result conversions (remote references, dates) to a nested value.
+     */
+    public Object __value__(Object value) {
+        if (!(value instanceof String))
+            return value;
+        String val = (String) value;
+        if (val.startsWith("hash:"))
+            return __remote__(val);
+        DateTimeFormatter dtparser = ISODateTimeFormat.dateHourMinuteSecond();
+        try {
+            return dtparser.parseDateTime(val);
+        } catch (Exception ex) {
+        }
+        return val;
+    }
 	public void flush() {
-		cache.clear();
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+	private void invalidate(String endpoint, String method) {
+		synchronized (cache) {
+			cache.remove(endpoint + '/' + method);
+		}
 	}
 	private void set(String endpoint, FunctionCall func, Object result) {
 		HashMap<ArrayWrapper, Object> inner = new HashMap<ArrayWrapper, Object>();
 		inner.put(new ArrayWrapper(func.params), result);
-		cache.put(endpoint + '/' + func.method, inner);
+		synchronized (cache) {
+			cache.put(endpoint + '/' + func.method, inner);
+		}
 	}
 	private boolean has(String endpoint, FunctionCall func) {
-		if (!cache.containsKey(endpoint + '/' + func.method))
-			return false;
-		return cache.containsKey(endpoint + '/' + func.method) && cache.get(endpoint + '/' + func.method).containsKey(new ArrayWrapper(func.params));
+		synchronized (cache) {
+			if (!cache.containsKey(endpoint + '/' + func.method))
+				return false;
+			return cache.get(endpoint + '/' + func.method).containsKey(new ArrayWrapper(func.params));
+		}
 	}
 	private Object get(String endpoint, FunctionCall func) {
-		return cache.get(endpoint + '/' + func.method).get(new ArrayWrapper(func.params));
+		synchronized (cache) {
+			HashMap<ArrayWrapper, Object> inner = cache.get(endpoint + '/' + func.method);
+			return (inner == null) ? null : inner.get(new ArrayWrapper(func.params));
+		}
 	}
 	public Object __rpccall__(FunctionCall func) {
 		return __rpccall__(this.endpoint, func, true);
@@ -189,7 +286,7 @@ public abstract class RpcClient {
             return false;
         }
     }
-	public synchronized Object __rpccall__(String endpoint, Object funcobj, boolean usecache) {
+	public Object __rpccall__(String endpoint, Object funcobj, boolean usecache) {
         try {
             // normal case is passing a functioncall, batch case is passing a List<FunctionCall>
             FunctionCall func = (FunctionCall)funcobj;
@@ -205,70 +302,177 @@ public abstract class RpcClient {
             funcobj = func;
         } catch (ClassCastException ex) {
             try {
-                BatchClient b = (BatchClient) funcobj;
-                List<FunctionCall> newcalls = new Vector<FunctionCall>();
-                for (int i = 0; i < b.batch.size(); i++) {
-                    b.batch.get(i).params = __marshall_args__(b.batch.get(i).params);
-                }
-                for (FunctionCall f : b.batch) {
-                    if (!b.called.contains(f)) {
-                        newcalls.add(f);
-                    }
-                }
-                funcobj = newcalls;
+                funcobj = __batch_calls__((BatchClient) funcobj);
             } catch (ClassCastException ex2) {
 
             }
         }
+        RetryPolicy policy = retry_policy;
+        if (funcobj instanceof FunctionCall) {
+            policy = policy((FunctionCall) funcobj);
+        } else if (funcobj instanceof List) {
+            policy = __batch_policy__((List<FunctionCall>) funcobj);
+        }
+		Object ret = __parse_response__(utf8(__post__(endpoint, funcobj, policy)));
+        // batches are never cached, and are posted as a list
+        if (usecache) set(endpoint, (FunctionCall) funcobj, ret);
+		return ret;
+	}
+    /**
+     * Posts payload as JSON and returns the response body, retrying transport failures as policy
+     * and the global RetryBudget allow. Never called holding the client's monitor, so a slow or
+     * retried request doesn't hold up other threads using the client.
+     */
+    protected byte[] __post__(String endpoint, Object payload, RetryPolicy policy) {
+        String body = gson.toJson(payload);
+        RetryBudget.global.request();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return __send__(endpoint, body);
+            } catch (TransportException e) {
+                if (attempt >= policy.attempts || !RetryBudget.global.retry())
+                    throw e;
+                try {
+                    Thread.sleep(policy.backoff(attempt));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+    private byte[] __send__(String endpoint, String body) {
 		HttpPost post = new HttpPost(endpoint);
 		StringEntity req = null;
 		req = new StringEntity(
-					gson.toJson(funcobj),
+					body,
 					"UTF-8"
 					);
 		post.setEntity(req);
 		post.setHeader(HTTP.CONTENT_TYPE, "application/json");
 		HttpResponse resp = null;
-		HttpClient client = Http.client();
+		HttpClient client = http_client();
 		try {
-			resp = client.execute(post, Http.context());
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
+			resp = client.execute(post, http_context());
+		} catch (IOException e) {
+			throw new TransportException("request to " + endpoint + " failed", e);
 		}
-		Object ret = null;
 		HttpEntity rep = resp.getEntity();
-		InputStreamReader is = null; 
 		try {
-			is = new InputStreamReader(rep.getContent());
-			BufferedReader rd = new BufferedReader(is);
-			String out = "";
-			String line = null;
-			while ((line = rd.readLine()) != null) {
-				out += line;
+			int status = resp.getStatusLine().getStatusCode();
+			if (status == 502 || status == 503 || status == 504) {
+				EntityUtils.consume(rep);
+				throw new TransportException(endpoint + " answered " + resp.getStatusLine());
 			}
-			resp.getEntity().consumeContent();
-			ret = __parse_response__(out);
+			return EntityUtils.toByteArray(rep);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			throw new RuntimeException();
-		} finally {
-			if (is != null)
-				try {
-					is.close();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+			throw new TransportException("reading response from " + endpoint + " failed", e);
 		}
-        FunctionCall func = (FunctionCall)funcobj;
-        if (usecache) set(endpoint, func, ret);
-		return ret;
-	}
+    }
+    // the policy a call runs under, giving it an idempotency key if retries need one
+    private RetryPolicy policy(FunctionCall func) {
+        RetryPolicy policy = (func.retry != null) ? func.retry : retry_policy;
+        if (policy.keyed() && func.idempotency_key == null)
+            func.idempotency_key = UUID.randomUUID().toString();
+        return policy;
+    }
+    /**
+     * Posts calls as one JSON-RPC batch, bypassing the cache, and returns their results in order.
+     * The batch is retried as __batch_policy__ decides.
+     */
+    public List<Object> __rpccall_batch__(String endpoint, List<? extends FunctionCall> calls) {
+        RetryPolicy policy = __prepare_batch__(calls);
+        return (List<Object>) __parse_response__(utf8(__post__(endpoint, calls, policy)));
+    }
+    /**
+     * Like __rpccall_batch__ but leaves each result undecoded, see RawResult.
+     */
+    public List<RawResult> __rpccall_batch_raw__(String endpoint, List<? extends FunctionCall> calls) {
+        RetryPolicy policy = __prepare_batch__(calls);
+        return RawResult.all(this, __post__(endpoint, calls, policy));
+    }
+    /**
+     * Like __rpccall_batch__ but an error only fails its own call: the RemoteException is returned
+     * in place of its result. Pipelines use this so a failed call can be traced to the one it ran on.
+     */
+    public List<Object> __rpccall_batch_each__(String endpoint, List<? extends FunctionCall> calls) {
+        RetryPolicy policy = __prepare_batch__(calls);
+        JsonElement response = new JsonParser().parse(utf8(__post__(endpoint, calls, policy)));
+        if (!response.isJsonArray())
+            return (List<Object>) __parse_response__(gson.toJson(response));
+        List<Object> results = new Vector<Object>();
+        for (JsonElement r : response.getAsJsonArray()) {
+            try {
+                results.add(__parse_response__(gson.toJson(r)));
+            } catch (RemoteException e) {
+                results.add(e);
+            }
+        }
+        return results;
+    }
+    /**
+     * Like __rpccall_batch_each__ but leaves each result undecoded, see RawResult.
+     */
+    public List<Object> __rpccall_batch_raw_each__(String endpoint, List<? extends FunctionCall> calls) {
+        RetryPolicy policy = __prepare_batch__(calls);
+        return RawResult.each(this, __post__(endpoint, calls, policy));
+    }
+    private RetryPolicy __prepare_batch__(List<? extends FunctionCall> calls) {
+        for (FunctionCall f : calls) {
+            f.params = __marshall_args__(f.params);
+        }
+        return __batch_policy__(calls);
+    }
+    /**
+     * The policy a batch is retried under: that of the call allowing the fewest attempts, counting
+     * retry_policy for calls without their own, so no call is retried more often than it asked.
+     * When the batch may be retried its non-idempotent calls get idempotency keys.
+     */
+    private RetryPolicy __batch_policy__(List<? extends FunctionCall> calls) {
+        RetryPolicy policy = null;
+        for (FunctionCall f : calls) {
+            RetryPolicy p = (f.retry != null) ? f.retry : retry_policy;
+            if (policy == null || p.attempts < policy.attempts)
+                policy = p;
+        }
+        if (policy == null)
+            return retry_policy;
+        for (FunctionCall f : calls) {
+            RetryPolicy p = (f.retry != null) ? f.retry : retry_policy;
+            if (policy.attempts > 1 && !p.idempotent && f.idempotency_key == null)
+                f.idempotency_key = UUID.randomUUID().toString();
+        }
+        return policy;
+    }
+    static String utf8(byte[] b) {
+        return utf8(b, 0, b.length);
+    }
+    static String utf8(byte[] b, int offset, int length) {
+        try {
+            return new String(b, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 	public Object call(String func, Object... args) {
 		return __rpccall__(this.endpoint, new FunctionCall(func, args));
 	}
+    public Object call(RetryPolicy policy, String func, Object... args) {
+        return __rpccall__(this.endpoint, new FunctionCall(func, args).retry(policy));
+    }
+    // the calls of a batch that haven't already been made to supply .val() arguments
+    private List<FunctionCall> __batch_calls__(BatchClient b) {
+        List<FunctionCall> newcalls = new Vector<FunctionCall>();
+        for (int i = 0; i < b.batch.size(); i++) {
+            b.batch.get(i).params = __marshall_args__(b.batch.get(i).params);
+        }
+        for (FunctionCall f : b.batch) {
+            if (!b.called.contains(f)) {
+                newcalls.add(f);
+            }
+        }
+        return newcalls;
+    }
     public List<Object> batch(BatchCallRunnable b) {
         // preamble
         BatchClient bc = new BatchClient(this);
@@ -278,26 +482,203 @@ public abstract class RpcClient {
         bc.results.clear();
         bc.results.addAll((List<Object>)this.__rpccall__(this.endpoint, bc, false));
         return bc.results;
+    }
+    /**
+     * Runs b as a batch and returns the undecoded result of each call it queued, see RawResult.
+     * Calls made early to supply .val() arguments aren't included.
+     */
+    public List<RawResult> batch_raw(BatchCallRunnable b) {
+        BatchClient bc = new BatchClient(this);
+        b.run(bc);
+        if (!can_connect)
+            return null;
+        return __rpccall_batch_raw__(this.endpoint, __batch_calls__(bc));
+    }
+    public RawResult call_raw(String func, Object... args) {
+        return __rpccall_raw__(this.endpoint, new FunctionCall(func, args));
+    }
+    public RawResult call_raw(RetryPolicy policy, String func, Object... args) {
+        return __rpccall_raw__(this.endpoint, new FunctionCall(func, args).retry(policy));
+    }
+    public RawResult get_raw(String attr) {
+        return __rpccall_raw__(this.base_endpoint,
+                new FunctionCall("globals.getattr", this.__ref__(), attr).retry(RetryPolicy.IDEMPOTENT));
+    }
+    /**
+     * Makes func without decoding its result: only errors and a top-level "hash:" reference are
+     * looked at, the rest stays bytes of the response body for relaying. Never cached.
+     */
+    public RawResult __rpccall_raw__(String endpoint, FunctionCall func) {
+        if (!can_connect)
+            return null;
+        func.params = __marshall_args__(func.params);
+        RetryPolicy policy = policy(func);
+        return RawResult.one(this, __post__(endpoint, func, policy));
     }
 	public Object call_nocache(String func, Object... args) {
 		return __rpccall__(this.endpoint, new FunctionCall(func, args), false);
 	}
 	public Object get(String attr) {
+        synchronized (this) {
+            if (dirty != null && dirty.containsKey(attr))
+                return __value__(dirty.get(attr));
+        }
 		return __rpccall__(this.base_endpoint,
-                new FunctionCall("globals.getattr",
-                        String.format("hash:%d", this.interface_().hash),
-                        attr));
+                new FunctionCall("globals.getattr", this.__ref__(), attr).retry(RetryPolicy.IDEMPOTENT));
 	}
 	public Object get_nocache(String attr) {
 		return __rpccall__(this.base_endpoint, 
-				new FunctionCall("globals.getattr", 
-						String.format("hash:%d",this.interface_().hash),
-						attr), false);
+				new FunctionCall("globals.getattr", this.__ref__(), attr).retry(RetryPolicy.IDEMPOTENT), false);
 	}
 	public void set(String attr, Object value) {
-		__rpccall__(this.base_endpoint, new FunctionCall("globals.setattr", attr, value));
+        value = __marshall_args__(value)[0];
+        synchronized (this) {
+            if (dirty != null) {
+                dirty.put(attr, value);
+                if (write_behind_timeout > 0 && write_behind_task == null) {
+                    write_behind_task = new TimerTask() {
+                        @Override
+                        public void run() {
+                            // commits can back off for a while, keep them off the shared timer thread
+                            write_behind_pool().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        commit();
+                                    } catch (RuntimeException e) {
+                                        synchronized (RpcClient.this) {
+                                            write_behind_error = e;
+                                        }
+                                    }
+                                }
+                            });
+                        }
+                    };
+                    write_behind_timer().schedule(write_behind_task, write_behind_timeout);
+                }
+                return;
+            }
+        }
+        __rpccall__nocache(this.base_endpoint, new FunctionCall("globals.setattr", this.__ref__(), attr, value));
+        invalidate(this.base_endpoint, "globals.getattr");
 	}
-	private class DateTimeTypeConverter implements JsonSerializer<DateTime>, JsonDeserializer<DateTime> {
+    /**
+     * Buffers set() calls until commit() or until timeout milliseconds after the first
+     * buffered write; a timeout of 0 only flushes on commit().
+     */
+    public synchronized void write_behind(long timeout) {
+        if (dirty == null)
+            dirty = new LinkedHashMap<String, Object>();
+        write_behind_timeout = timeout;
+    }
+    /**
+     * Commits buffered writes and goes back to writing each set() through. If the commit fails
+     * the client stays in write-behind mode with the writes still buffered.
+     */
+    public void write_through() {
+        synchronized (commit_lock) {
+            // sets made while a commit is in flight go out with the next one
+            while (true) {
+                synchronized (this) {
+                    if (dirty == null || dirty.isEmpty() || !can_connect) {
+                        dirty = null;
+                        return;
+                    }
+                }
+                commit();
+            }
+        }
+    }
+    /**
+     * Sends all buffered attribute writes as a single globals.setattrs call. Writes stay buffered
+     * until the server has accepted them, so a failed commit can simply be repeated. Only one
+     * commit per client is in flight at a time; set() and get() carry on meanwhile.
+     */
+    public void commit() {
+        synchronized (commit_lock) {
+            HashMap<String, Object> vals;
+            synchronized (this) {
+                if (write_behind_task != null) {
+                    write_behind_task.cancel();
+                    write_behind_task = null;
+                }
+                if (dirty == null || dirty.isEmpty() || !can_connect)
+                    return;
+                vals = new HashMap<String, Object>(dirty);
+            }
+            __rpccall__nocache(this.base_endpoint, new FunctionCall("globals.setattrs", this.__ref__(), vals));
+            synchronized (this) {
+                // dirty is null if the client went back to writing through meanwhile
+                for (Map.Entry<String, Object> e : vals.entrySet()) {
+                    // keep anything set again since the copy was taken
+                    if (dirty != null && dirty.containsKey(e.getKey()) && dirty.get(e.getKey()) == e.getValue())
+                        dirty.remove(e.getKey());
+                }
+                write_behind_error = null;
+            }
+            invalidate(this.base_endpoint, "globals.getattr");
+        }
+    }
+    /**
+     * Why the last timed commit failed, null if it succeeded. The writes are still buffered and
+     * go out with the next commit.
+     */
+    public synchronized RuntimeException write_behind_error() {
+        return write_behind_error;
+    }
+    private static synchronized Timer write_behind_timer() {
+        if (write_behind_timer == null)
+            write_behind_timer = new Timer("jsonrpc-write-behind", true);
+        return write_behind_timer;
+    }
+    private static synchronized ExecutorService write_behind_pool() {
+        if (write_behind_pool == null) {
+            write_behind_pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "jsonrpc-write-behind-commit");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return write_behind_pool;
+    }
+    /**
+     * Fetches every attribute of this object in one call. Writes buffered by write_behind() and
+     * not yet committed show in the snapshot, as they do in get().
+     */
+    public ObjectSnapshot snapshot() {
+        List<ObjectSnapshot> snapshots = snapshot(this);
+        return snapshots.isEmpty() ? null : snapshots.get(0);
+    }
+    /**
+     * Fetches every attribute of each object in one call; all objects must live on the same server.
+     */
+    public static List<ObjectSnapshot> snapshot(RpcClient... objs) {
+        List<ObjectSnapshot> snapshots = new Vector<ObjectSnapshot>();
+        if (objs.length == 0)
+            return snapshots;
+        String[] refs = new String[objs.length];
+        for (int i = 0; i < objs.length; i++) {
+            refs[i] = objs[i].__ref__();
+        }
+        RpcClient c = objs[0];
+        List<Map<String, Object>> values = (List<Map<String, Object>>) c.__rpccall__nocache(c.base_endpoint,
+                new FunctionCall("globals.snapshot", new Object[]{refs}).retry(RetryPolicy.IDEMPOTENT));
+        if (values == null)
+            return snapshots;
+        for (int i = 0; i < objs.length; i++) {
+            Map<String, Object> vals = new HashMap<String, Object>(values.get(i));
+            synchronized (objs[i]) {
+                if (objs[i].dirty != null)
+                    vals.putAll(objs[i].dirty);
+            }
+            snapshots.add(new ObjectSnapshot(objs[i], vals));
+        }
+        return snapshots;
+    }
+	private static class DateTimeTypeConverter implements JsonSerializer<DateTime>, JsonDeserializer<DateTime> {
 		  // No need for an InstanceCreator since DateTime provides a no-args constructor
 		  @Override
 		  public JsonElement serialize(DateTime src, Type srcType, JsonSerializationContext context) {
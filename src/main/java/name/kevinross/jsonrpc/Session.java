@@ -0,0 +1,94 @@
+package name.kevinross.jsonrpc;
+
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.HashMap;
+
+/**
+ * Client state for one user of the backend: cookies, credentials, the result cache and
+ * transport settings. Connections come from the pool shared through DefaultHttp, so a
+ * session costs a few small objects until it makes its first call.
+ *
+ *     Session s = new Session().credentials("user", "secret");
+ *     RootInterface r = ApiClient.Root("http://localhost:9055/api", s);
+ */
+public class Session implements HttpInterface {
+	private final CookieStore jar_ = new BasicCookieStore();
+	private final CredentialsProvider creds_ = new BasicCredentialsProvider();
+	private final HashMap<String, HashMap<ArrayWrapper, Object>> cache_ = new HashMap<String, HashMap<ArrayWrapper, Object>>();
+	private final HttpParams params_;
+	private HttpContext context_;
+	private HttpClient client_;
+
+	public Session() {
+		params_ = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params_, HttpProtocolParams.getVersion(DefaultHttp.params()));
+		HttpConnectionParams.setTcpNoDelay(params_, HttpConnectionParams.getTcpNoDelay(DefaultHttp.params()));
+	}
+	public synchronized HttpClient client() {
+		if (client_ == null)
+			client_ = new DefaultHttpClient(DefaultHttp.connections(), params_);
+		return client_;
+	}
+	public HttpContext context() {
+		synchronized (this) {
+			if (context_ == null) {
+				context_ = new BasicHttpContext();
+				context_.setAttribute(ClientContext.COOKIE_STORE, jar_);
+				context_.setAttribute(ClientContext.CREDS_PROVIDER, creds_);
+			}
+		}
+		return new BasicHttpContext(context_);
+	}
+	public CookieStore jar() {
+		return jar_;
+	}
+	public CredentialsProvider credentials() {
+		return creds_;
+	}
+	public Session credentials(String user, String password) {
+		creds_.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(user, password));
+		return this;
+	}
+	/**
+	 * Timeouts in milliseconds for establishing connections and waiting on responses; 0 waits forever.
+	 */
+	public Session timeouts(int connect, int read) {
+		HttpConnectionParams.setConnectionTimeout(params_, connect);
+		HttpConnectionParams.setSoTimeout(params_, read);
+		return this;
+	}
+	public HttpParams params() {
+		return params_;
+	}
+	/**
+	 * The result cache every client in this session shares; lock it before use.
+	 */
+	public HashMap<String, HashMap<ArrayWrapper, Object>> cache() {
+		return cache_;
+	}
+	/**
+	 * Forgets cookies, credentials and cached results so the session can be handed to another user.
+	 */
+	public void clear() {
+		jar_.clear();
+		creds_.clear();
+		synchronized (cache_) {
+			cache_.clear();
+		}
+	}
+}
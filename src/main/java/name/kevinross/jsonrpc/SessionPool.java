@@ -0,0 +1,44 @@
+package name.kevinross.jsonrpc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sessions by key (a user or tenant id), created on first use. Once more than max sessions
+ * exist the least recently used one is dropped.
+ */
+public class SessionPool {
+    private final int max;
+    private final LinkedHashMap<String, Session> sessions;
+
+    public SessionPool(int max) {
+        this.max = max;
+        this.sessions = new LinkedHashMap<String, Session>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                return size() > SessionPool.this.max;
+            }
+        };
+    }
+
+    public synchronized Session get(String key) {
+        Session s = sessions.get(key);
+        if (s == null) {
+            s = new Session();
+            sessions.put(key, s);
+        }
+        return s;
+    }
+
+    public synchronized Session remove(String key) {
+        return sessions.remove(key);
+    }
+
+    public synchronized boolean has(String key) {
+        return sessions.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,15 @@
+package name.kevinross.jsonrpc;
+
+/**
+ * A request that could not be delivered or whose response could not be read; unlike
+ * RemoteException the server may never have seen it.
+ */
+public class TransportException extends RuntimeException {
+	private static final long serialVersionUID = -2214571304218427003L;
+	public TransportException(String msg) {
+		super(msg);
+	}
+	public TransportException(String msg, Throwable cause) {
+		super(msg, cause);
+	}
+}
@@ -2,7 +2,8 @@ import functools
 import datetime
 from functools import wraps
 from copy import deepcopy as copy
-from threading import local
+from threading import local, Lock, Event
+from collections import OrderedDict
 
 import simplejson
 import requests
@@ -28,11 +29,29 @@ def json(obj):
 	return obj
 
 
-def unjson(obj):
+def columnar(rows):
+	"""Packs a list of __meta__ tagged dicts of one type into the columnar form the Java
+	client decodes without per-row keys: a shared __meta__, the column names and one
+	[meta id, values...] list per row."""
+	if not rows:
+		return rows
+	meta = rows[0]['__meta__']
+	columns = [x for x in rows[0] if x != '__meta__']
+	return {
+		'__meta__': {'package_': meta['package_'], 'name': meta['name']},
+		'__columns__': columns,
+		'__rows__': [[row['__meta__']['id']] + [json(row.get(x)) for x in columns] for row in rows]
+	}
+
+
+def unjson(obj, refs=None):
+	# {"__ref__": id} is the result of an earlier call in the same pipelined batch
+	if refs is not None and isinstance(obj, dict) and len(obj) == 1 and '__ref__' in obj:
+		return refs[obj['__ref__']]
 	if isinstance(obj, list):
-		return [unjson(x) for x in obj]
+		return [unjson(x, refs) for x in obj]
 	if isinstance(obj, dict):
-		return {x: unjson(obj[x]) for x in obj}
+		return {x: unjson(obj[x], refs) for x in obj}
 	if isinstance(obj, basestring) and obj.startswith('hash:'):
 		global objects
 		return objects[int(obj.strip('hash:'))]
@@ -63,6 +82,53 @@ def jsonify(func):
 
 objects = {}
 
+# responses by idempotency key so a call the client retried isn't run twice, kept as the json
+# that was sent rather than the live result
+replays = OrderedDict()
+replays_lock = Lock()
+replays_max = 10000
+# keys of calls still running, so a retry that overtakes the first attempt waits for it
+replays_running = {}
+
+
+def replayed(body):
+	"""The response recorded for body's idempotency key, or None if the call should run; the
+	caller then owns the key and must settle() it."""
+	key = body.get('idempotency_key')
+	if key is None:
+		return None
+	while True:
+		with replays_lock:
+			if key in replays:
+				return dict(replays[key], id=body.get('id'))
+			running = replays_running.get(key)
+			if running is None:
+				replays_running[key] = Event()
+				return None
+		running.wait()
+
+
+def remember(body, response):
+	key = body.get('idempotency_key')
+	if key is None:
+		return response
+	response = json(response)
+	with replays_lock:
+		replays[key] = response
+		while len(replays) > replays_max:
+			replays.popitem(last=False)
+	return response
+
+
+def settle(body):
+	key = body.get('idempotency_key')
+	if key is None:
+		return
+	with replays_lock:
+		running = replays_running.pop(key, None)
+	if running is not None:
+		running.set()
+
 
 def getobjects():
 	global objects
@@ -70,13 +136,15 @@ def getobjects():
 
 
 class JSONError(Exception):
-	def __init__(self, exc):
+	# call is the request the error answers, needed in batches where request.json is a list
+	def __init__(self, exc, call=None):
 		self.exc = exc
+		self.call = call
 
 	@property
 	def dict(self):
 		return dict(
-			id=request.json.get('id'),
+			id=(self.call if self.call is not None else request.json).get('id'),
 			jsonrpc="2.0",
 			error=dict(
 				code=self.json_rpc_code,
@@ -143,7 +211,7 @@ class JSONRPC(object):
 			attrs=[x for x in dir(self) if
 				   not callable(getattr(self, x)) and x not in ('__interface__', '__jsoncall__')],
 			funcs=[x for x in dir(self) if callable(getattr(self, x)) and x not in (
-				'__interface__', '__jsoncall__', '__jsoncall_one__', '__class__', 'make_result', 'make_error')]
+				'__interface__', '__jsoncall__', '__jsoncall_one__', '__jsoncall_run__', '__class__', 'make_result', 'make_error')]
 		)
 
 	def make_result(self, json, val):
@@ -176,44 +244,72 @@ class JSONRPC(object):
 			return JSONParseError(e)
 		if isinstance(json, list):
 			res = []
+			refs = {}
 			for x in json:
 				if 'id' in x:
-					res.append(self.__jsoncall_one__(x))
+					res.append(self.__jsoncall_one__(x, refs))
 				else:
-					self.__jsoncall_one__(x)
+					self.__jsoncall_one__(x, refs)
 			return res
 		else:
 			return self.__jsoncall_one__(json)
 
 	@jsonify
-	def __jsoncall_one__(self, body):
+	def __jsoncall_one__(self, body, refs=None):
 		func = None
 		json = body
 		if 'jsonrpc' not in json:
-			return JSONInvalidRequest(Exception('no version specified'))
+			return JSONInvalidRequest(Exception('no version specified'), json)
 		if 'method' not in json:
-			return JSONInvalidRequest(Exception('no method specified'))
+			return JSONInvalidRequest(Exception('no method specified'), json)
 
-		args = unjson(json.get('params', []))
+		try:
+			# only pipelined calls may refer to earlier results
+			args = unjson(json.get('params', []), refs if 'target' in json else None)
+		except KeyError, e:
+			return JSONInvalidParams(e, json)
 		if args.__class__ not in (list, dict):
-			return JSONInvalidParams(Exception('args not an object or array'))
+			return JSONInvalidParams(Exception('args not an object or array'), json)
+		replay = replayed(json)
+		if replay is not None:
+			if refs is not None and 'result' in replay:
+				refs[json['id']] = unjson(replay['result'])
+			return replay
+		try:
+			return self.__jsoncall_run__(json, args, refs)
+		finally:
+			settle(json)
+
+	def __jsoncall_run__(self, json, args, refs):
+		# pipelined calls run on the result of an earlier call (or on self when target is null)
+		# and may name attributes as well as functions
+		pipelined = refs is not None and 'target' in json
+		obj = self
+		if pipelined and json['target'] is not None:
+			if json['target'] not in refs:
+				return JSONInvalidParams(Exception('no result for call %s' % json['target']), json)
+			obj = refs[json['target']]
 		try:
-			func = resolve(self, json['method'])
+			func = resolve(obj, json['method'])
 		except AttributeError, e:
-			return JSONMethodNotFound(e)
+			return JSONMethodNotFound(e, json)
 		try:
-			if isinstance(args, list):
+			if pipelined and not callable(func):
+				v = func
+			elif isinstance(args, list):
 				v = func(*args)
 			elif isinstance(args, dict):
 				v = func(**args)
 			else:
-				return JSONInternalError(Exception('how???'))
+				return JSONInternalError(Exception('how???'), json)
 		except AttributeError, e:
-			return JSONMethodNotFound(e)
+			return JSONMethodNotFound(e, json)
 		except Exception, ex:
-			return self.make_error(json, 1, 'application exception', ex)
+			return remember(json, self.make_error(json, 1, 'application exception', ex))
 
-		return self.make_result(json, v)
+		if refs is not None and 'id' in json:
+			refs[json['id']] = v
+		return remember(json, self.make_result(json, v))
 
 	__getattr__ = object.__getattribute__
 	__setattr__ = object.__setattr__
@@ -245,6 +341,20 @@ class Globals(JSONRPC):
 		obj = resolve(obj, '.'.join(attr.split('.')[0:-1]))
 		setattr(obj, attr.split('.')[-1], val)
 
+	@staticmethod
+	def getattrs(obj, attrs):
+		return {x: json(resolve(obj, x)) for x in attrs}
+
+	@staticmethod
+	def setattrs(obj, vals):
+		for attr in vals:
+			Globals.setattr(obj, attr, vals[attr])
+
+	# every public attribute of each object, one dict per object
+	@staticmethod
+	def snapshot(objs):
+		return [Globals.getattrs(x, [a for a in interface(x)['attrs'] if not a.startswith('__')]) for x in objs]
+
 	# don't want people (re-)defining things here
 	def __setattr__(self, key, value):
 		raise AttributeError("can't set attribute")
@@ -0,0 +1,57 @@
+package name.kevinross.jsonrpc;
+
+import name.kevinross.jsonrpc.load.StandInServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BatchClientTest {
+    private StandInServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer(0, 4, 0, 0, 8, 4);
+        server.start();
+        ApiClient.global_client = null;
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ApiClient.global_client = null;
+    }
+
+    @Test
+    public void sessionBatchStaysOutOfGlobalClient() {
+        final Session alice = new Session();
+        ApiClient root = ApiClient.with_session(server.endpoint(), alice);
+        ApiClient api = (ApiClient) root.get("api");
+        List<Object> results = api.batch(new BatchCallRunnable() {
+            @Override
+            public void run(BatchClient b) {
+                assertSame(alice, b.session());
+                b.call("echo", "a");
+                b.call("echo", "b");
+            }
+        });
+        assertEquals("a", results.get(0));
+        assertEquals("b", results.get(1));
+        assertNull(ApiClient.global_client);
+    }
+
+    @Test
+    public void batchKeepsEndpoints() {
+        ApiClient root = ApiClient.with_session(server.endpoint(), new Session());
+        ApiClient api = (ApiClient) root.get("api");
+        BatchClient b = new BatchClient(api);
+        assertEquals(api.base_endpoint, b.base_endpoint);
+        assertEquals(api.endpoint, b.endpoint);
+        assertEquals(root.endpoint, new BatchClient(root).endpoint);
+    }
+}
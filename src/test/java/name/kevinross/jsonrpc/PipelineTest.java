@@ -0,0 +1,119 @@
+package name.kevinross.jsonrpc;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import name.kevinross.jsonrpc.load.StandInServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelineTest {
+    public interface Root extends PythonMagic {
+        public Thing api();
+    }
+
+    public interface Thing extends PythonMagic {
+        public Thing object(int i);
+        public String echo(String val);
+        public Thing echo(Thing val);
+        public Thing name();
+        public Number id();
+    }
+
+    private StandInServer server;
+    private ApiClient client;
+    private Root root;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer(0, 4, 0, 0, 8, 4);
+        server.start();
+        client = ApiClient.with_session(server.endpoint(), new Session());
+        root = client.proxy(Root.class, true);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void chainIsOneRequest() {
+        assertEquals(2, root.api().object(2).id().intValue());
+        assertEquals(1, server.requests("api"));
+        assertEquals(1, server.requests("object"));
+        assertEquals(1, server.requests("id"));
+        JsonArray calls = server.last().getAsJsonArray();
+        assertEquals(3, calls.size());
+        assertTrue(calls.get(0).getAsJsonObject().get("target").isJsonNull());
+        assertEquals(calls.get(0).getAsJsonObject().get("id"), calls.get(1).getAsJsonObject().get("target"));
+        assertEquals(calls.get(1).getAsJsonObject().get("id"), calls.get(2).getAsJsonObject().get("target"));
+    }
+
+    @Test
+    public void placeholdersPassAsRefs() {
+        Thing api = root.api();
+        Thing same = api.echo(api.object(3));
+        assertEquals(3, same.id().intValue());
+        JsonArray calls = server.last().getAsJsonArray();
+        assertEquals(4, calls.size());
+        JsonObject ref = calls.get(2).getAsJsonObject().getAsJsonArray("params").get(0).getAsJsonObject();
+        assertEquals(calls.get(1).getAsJsonObject().get("id"), ref.get("__ref__"));
+        // a placeholder from a sent pipeline marshalls as the object it resolved to
+        assertEquals(3, api.echo(same).id().intValue());
+        assertEquals("hash:", server.last().getAsJsonArray().get(0).getAsJsonObject().getAsJsonArray("params").get(0).getAsString().substring(0, 5));
+    }
+
+    @Test
+    public void callsOnSentPipelineStartANewOne() {
+        Thing api = root.api();
+        Thing a = api.object(1);
+        Thing b = api.object(2);
+        assertEquals(1, a.id().intValue());
+        assertEquals(1, server.requests("object"));
+        assertEquals(2, b.id().intValue());
+        assertEquals(1, server.requests("object"));
+        assertEquals(2, server.requests("id"));
+        Pipeline p = new Pipeline(client);
+        p.add(null, "api");
+        p.flush();
+        assertNull(p.offer(null, "api", new Object[]{}));
+        try {
+            p.add(null, "api");
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void nullPlaceholder() {
+        Thing none = root.api().echo((Thing) null);
+        try {
+            none.id();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("echo returned null, not a remote object", e.getMessage());
+        }
+        // and again, rather than a NullPointerException
+        try {
+            none.id();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void plainValuePlaceholder() {
+        try {
+            root.api().object(1).name().id();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("name returned Thing1, not a remote object", e.getMessage());
+        }
+    }
+}
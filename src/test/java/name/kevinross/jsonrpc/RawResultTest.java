@@ -0,0 +1,129 @@
+package name.kevinross.jsonrpc;
+
+import com.google.gson.JsonParseException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RawResultTest {
+    private RpcClient client;
+
+    @Before
+    public void setUp() {
+        client = new ApiClient("http://127.0.0.1:1/api", null);
+    }
+
+    private RawResult one(String body) throws Exception {
+        return RawResult.one(client, body.getBytes("UTF-8"));
+    }
+
+    private List<RawResult> all(String body) throws Exception {
+        return RawResult.all(client, body.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void escapedQuotesAndBackslashes() throws Exception {
+        assertEquals("\"say \\\"hi\\\" \\\\\"", one("{\"id\": 1, \"jsonrpc\": \"2.0\", \"result\": \"say \\\"hi\\\" \\\\\"}").toString());
+        // an escaped backslash right before the closing quote
+        assertEquals("\"\\\\\"", one("{\"result\": \"\\\\\", \"id\": 1}").toString());
+    }
+
+    @Test
+    public void bracketsInsideStrings() throws Exception {
+        assertEquals("{\"a\": \"}]\", \"b\": [\"{[\"]}", one("{\"id\": 1, \"result\": {\"a\": \"}]\", \"b\": [\"{[\"]}, \"jsonrpc\": \"2.0\"}").toString());
+        assertEquals("\"}\"", one("{\"id\": \"{\", \"result\": \"}\"}").toString());
+    }
+
+    @Test
+    public void whitespace() throws Exception {
+        RawResult r = one(" \r\n{ \"id\" :\t1 ,\n  \"result\"\t:  [1, 2,\n 3]\n,\"jsonrpc\" : \"2.0\" }\n");
+        assertEquals("[1, 2,\n 3]", r.toString());
+        assertEquals(r.length(), r.buffer().remaining());
+    }
+
+    @Test
+    public void nullAndNumberResults() throws Exception {
+        assertEquals("null", one("{\"id\": 1, \"result\": null}").toString());
+        assertEquals("-1.5e3", one("{\"id\": 1, \"result\": -1.5e3}").toString());
+        assertEquals("42", one("{\"id\": 1, \"result\":42}").toString());
+        assertEquals("true", one("{\"result\": true, \"id\": 1}").toString());
+    }
+
+    @Test
+    public void batch() throws Exception {
+        List<RawResult> results = all("[{\"id\": 1, \"result\": \"a,b\"} ,\n {\"id\": 2, \"result\": [\"]\"]}, {\"id\": 3, \"result\": 7}]");
+        assertEquals(3, results.size());
+        assertEquals("\"a,b\"", results.get(0).toString());
+        assertEquals("[\"]\"]", results.get(1).toString());
+        assertEquals("7", results.get(2).toString());
+        assertEquals(0, all("[]").size());
+        assertEquals("1", all("{\"id\": 1, \"result\": 1}").get(0).toString());
+    }
+
+    @Test
+    public void errors() throws Exception {
+        String error = "{\"id\": 1, \"jsonrpc\": \"2.0\", \"error\": {\"code\": 1, \"message\": \"application exception\", "
+                + "\"data\": {\"exception\": \"KeyError\", \"message\": \"no \\\"x\\\"\"}}}";
+        try {
+            one(error);
+            fail();
+        } catch (RemoteException e) {
+            assertEquals("KeyError: no \"x\"", e.toString());
+        }
+        try {
+            all("[{\"id\": 0, \"result\": 1}, " + error + "]");
+            fail();
+        } catch (RemoteException e) {
+            assertEquals("KeyError: no \"x\"", e.toString());
+        }
+    }
+
+    @Test
+    public void remoteReferences() throws Exception {
+        RawResult r = one("{\"id\": 1, \"result\": \"hash:1234\"}");
+        assertTrue(r.remote());
+        assertEquals("http://127.0.0.1:1/api/1234", r.client().endpoint);
+        assertFalse(one("{\"id\": 1, \"result\": [\"hash:1234\"]}").remote());
+        assertFalse(one("{\"id\": 1, \"result\": \"not hash:1234\"}").remote());
+        assertFalse(one("{\"id\": 1, \"result\": {\"ref\": \"hash:1234\"}}").remote());
+        assertNull(one("{\"id\": 1, \"result\": \"hash\"}").client());
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void noResult() throws Exception {
+        one("{\"id\": 1, \"jsonrpc\": \"2.0\"}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void notAnObject() throws Exception {
+        one("\"hash:1\"");
+    }
+
+    @Test
+    public void truncated() throws Exception {
+        String[] bodies = {"{\"result\":", "{\"result\": ", "{\"result\":\"abc", "{\"result\":\"abc\\", "{\"result\": [1, {\"a\": 2}",
+                "{\"id\": 1, \"result\": 1", "{\"id\": 1, \"res", "{\"result\" 1}", "{\"result\": }", "{\"result\": 1 \"id\": 1}", "{"};
+        for (String body : bodies) {
+            try {
+                one(body);
+                fail(body);
+            } catch (JsonParseException e) {
+            }
+        }
+        String[] batches = {"[{\"id\": 1, \"result\": 1}", "[{\"id\": 1, \"result\": 1},", "[{\"id\": 1, \"result\": 1} {\"id\": 2, \"result\": 2}]", "["};
+        for (String body : batches) {
+            try {
+                all(body);
+                fail(body);
+            } catch (JsonParseException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package name.kevinross.jsonrpc;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResolvableMaterializerTest {
+    public static class Car extends Resolvable {
+        public String make;
+        public int topSpeed;
+        @SerializedName("year")
+        public int model_year;
+        public transient String note;
+    }
+
+    private static final String META = "{\"package_\": \"name.kevinross.jsonrpc.\", \"name\": \"ResolvableMaterializerTest$Car\"";
+
+    private final Gson gson = new GsonBuilder().serializeNulls().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+
+    private List<Resolvable> all(String json) {
+        return new ResolvableMaterializer(gson).all(new JsonParser().parse(json));
+    }
+
+    @Test
+    public void columnarMatchesRows() {
+        List<Resolvable> rows = all("["
+                + "{\"__meta__\": " + META + ", \"id\": 7}, \"id\": 1, \"make\": \"saab\", \"top_speed\": 200, \"year\": 1999, \"note\": \"x\"},"
+                + "{\"__meta__\": " + META + ", \"id\": 8}, \"id\": 2, \"make\": null, \"top_speed\": 90, \"year\": 2005, \"note\": \"y\"}]");
+        List<Resolvable> columns = all("{\"__meta__\": " + META + "}, \"__columns__\": [\"id\", \"make\", \"top_speed\", \"year\", \"note\"], "
+                + "\"__rows__\": [[7, 1, \"saab\", 200, 1999, \"x\"], [8, 2, null, 90, 2005, \"y\"]]}");
+        assertEquals(2, rows.size());
+        assertEquals(rows.size(), columns.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Car a = (Car) rows.get(i);
+            Car b = (Car) columns.get(i);
+            assertEquals(a.id, b.id);
+            assertEquals(a.make, b.make);
+            assertEquals(a.topSpeed, b.topSpeed);
+            assertEquals(a.model_year, b.model_year);
+            assertEquals(a.note, b.note);
+            assertEquals(a.__meta__.toString(), b.__meta__.toString());
+        }
+        Car car = (Car) columns.get(0);
+        assertEquals(200, car.topSpeed);
+        assertEquals(1999, car.model_year);
+        assertEquals(7, car.__meta__.id);
+        assertNull(car.note);
+        assertNull(((Car) columns.get(1)).make);
+    }
+
+    @Test
+    public void singleRowUnwrapped() {
+        Object car = new ResolvableMaterializer(gson).materialize(new JsonParser().parse(
+                "{\"__meta__\": " + META + "}, \"__columns__\": [\"make\"], \"__rows__\": [[3, \"volvo\"]]}"));
+        assertEquals("volvo", ((Car) car).make);
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void shortRow() {
+        all("{\"__meta__\": " + META + "}, \"__columns__\": [\"id\", \"make\"], \"__rows__\": [[7, 1, \"saab\"], [8, 2]]}");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void longRow() {
+        all("{\"__meta__\": " + META + "}, \"__columns__\": [\"id\"], \"__rows__\": [[7, 1, \"saab\"]]}");
+    }
+
+    @Test
+    public void unknownClass() {
+        String row = "{\"__meta__\": {\"package_\": \"name.kevinross.jsonrpc.\", \"name\": \"Nope\", \"id\": 1}, \"id\": 1}";
+        for (int i = 0; i < 2; i++) {
+            try {
+                all("[" + row + "]");
+                fail();
+            } catch (JsonParseException e) {
+                assertTrue(e.getMessage().contains("name.kevinross.jsonrpc.Nope"));
+            }
+        }
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void notResolvable() {
+        all("{\"__meta__\": {\"package_\": \"java.lang.\", \"name\": \"String\", \"id\": 1}, \"id\": 1}");
+    }
+
+    @Test
+    public void sharedPerGson() {
+        assertSame(ResolvableMaterializer.of(gson), ResolvableMaterializer.of(gson));
+        assertNotSame(ResolvableMaterializer.of(gson), ResolvableMaterializer.of(new Gson()));
+    }
+}
@@ -0,0 +1,226 @@
+package name.kevinross.jsonrpc;
+
+import com.google.gson.JsonElement;
+import name.kevinross.jsonrpc.load.StandInServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryTest {
+    private static final RetryPolicy QUICK = new RetryPolicy(3, 1, 5, false);
+    private StandInServer server;
+    private ApiClient api;
+    private RetryBudget budget;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer(0, 8, 0, 0, 8, 4);
+        server.start();
+        api = (ApiClient) ApiClient.with_session(server.endpoint(), new Session()).get("api");
+        budget = RetryBudget.global;
+        RetryBudget.global = new RetryBudget(0.1, 100);
+    }
+
+    @After
+    public void tearDown() {
+        RetryBudget.global = budget;
+        server.stop();
+    }
+
+    @Test
+    public void retriesTransportFailures() {
+        server.fail("echo", 2);
+        assertEquals("x", api.call(QUICK, "echo", "x"));
+        assertEquals(3, server.requests("echo"));
+    }
+
+    @Test
+    public void givesUpAfterAttempts() {
+        server.fail("echo", 5);
+        try {
+            api.call(QUICK, "echo", "x");
+            fail();
+        } catch (TransportException e) {
+            assertEquals(3, server.requests("echo"));
+        }
+    }
+
+    @Test
+    public void noRetriesByDefault() {
+        server.fail("echo", 1);
+        try {
+            api.call("echo", "x");
+            fail();
+        } catch (TransportException e) {
+            assertEquals(1, server.requests("echo"));
+        }
+    }
+
+    @Test
+    public void retriedCallsKeepTheirKey() {
+        server.fail("echo", 1);
+        api.call(QUICK, "echo", "x");
+        JsonElement key = server.last().getAsJsonObject().get("idempotency_key");
+        assertNotNull(key);
+        assertFalse(key.isJsonNull());
+        api.call(new RetryPolicy(3, 1, 5, true), "echo", "y");
+        assertTrue(server.last().getAsJsonObject().get("idempotency_key").isJsonNull());
+    }
+
+    @Test
+    public void budgetLimitsRetries() {
+        RetryBudget.global = new RetryBudget(0, 1);
+        server.fail("echo", 5);
+        try {
+            api.call(new RetryPolicy(5, 1, 5, true), "echo", "x");
+            fail();
+        } catch (TransportException e) {
+            assertEquals(2, server.requests("echo"));
+            assertEquals(0.0, RetryBudget.global.tokens(), 0);
+        }
+    }
+
+    @Test
+    public void budgetRefills() {
+        RetryBudget b = new RetryBudget(0.5, 2);
+        assertTrue(b.retry());
+        assertTrue(b.retry());
+        assertFalse(b.retry());
+        b.request();
+        assertFalse(b.retry());
+        b.request();
+        assertTrue(b.retry());
+        for (int i = 0; i < 10; i++) {
+            b.request();
+        }
+        assertEquals(2.0, b.tokens(), 0);
+    }
+
+    @Test
+    public void backoffStaysUnderBound() {
+        RetryPolicy p = new RetryPolicy(10, 10, 50, true);
+        long[] bounds = {10, 20, 40, 50, 50};
+        for (int retry = 1; retry <= bounds.length; retry++) {
+            for (int i = 0; i < 200; i++) {
+                long b = p.backoff(retry);
+                assertTrue(b >= 0 && b < bounds[retry - 1]);
+            }
+        }
+    }
+
+    @Test
+    public void batchUsesItsMostCautiousCall() {
+        server.fail("echo", 1);
+        try {
+            api.batch(new BatchCallRunnable() {
+                @Override
+                public void run(BatchClient b) {
+                    b.call(QUICK, "echo", "a");
+                    b.call("echo", "b");
+                }
+            });
+            fail();
+        } catch (TransportException e) {
+            assertEquals(1, server.requests("echo"));
+        }
+        server.fail("echo", 1);
+        List<Object> results = api.batch(new BatchCallRunnable() {
+            @Override
+            public void run(BatchClient b) {
+                b.call(QUICK, "echo", "a");
+                b.call(new RetryPolicy(2, 1, 5, true), "echo", "b");
+            }
+        });
+        assertEquals("a", results.get(0));
+        assertEquals("b", results.get(1));
+        assertEquals(3, server.requests("echo"));
+        // the batch may be retried, so the non-idempotent call needs a key and the idempotent one doesn't
+        assertFalse(server.last().getAsJsonArray().get(0).getAsJsonObject().get("idempotency_key").isJsonNull());
+        assertTrue(server.last().getAsJsonArray().get(1).getAsJsonObject().get("idempotency_key").isJsonNull());
+    }
+
+    @Test
+    public void backoffDoesNotBlockTheClient() throws Exception {
+        server.fail("payload", 2);
+        final List<Object> slow = new ArrayList<Object>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                slow.add(api.call(new RetryPolicy(3, 400, 400, true), "payload", 1));
+            }
+        };
+        t.start();
+        while (server.requests("payload") == 0) {
+            Thread.sleep(1);
+        }
+        long start = System.currentTimeMillis();
+        assertEquals("fast", api.call("echo", "fast"));
+        long took = System.currentTimeMillis() - start;
+        t.join();
+        assertEquals("a", slow.get(0));
+        assertTrue("echo waited " + took + "ms", took < 200);
+    }
+
+    @Test
+    public void writeThroughDuringRetriedCommit() throws Exception {
+        api.retry_policy = new RetryPolicy(2, 300, 300, false);
+        api.write_behind(0);
+        api.set("x", 5);
+        server.fail("globals.setattrs", 1);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    api.commit();
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        };
+        t.start();
+        while (server.requests("globals.setattrs") == 0) {
+            Thread.sleep(1);
+        }
+        api.write_through();
+        t.join();
+        assertEquals(0, errors.size());
+        assertEquals(2, server.requests("globals.setattrs"));
+        api.retry_policy = RetryPolicy.NONE;
+        assertEquals(5, ((Number) api.get_nocache("x")).intValue());
+        // back to writing through
+        api.set("y", 6);
+        assertEquals(1, server.requests("globals.setattr"));
+    }
+
+    @Test
+    public void failedTimedCommitIsKept() throws Exception {
+        api.write_behind(10);
+        server.fail("globals.setattrs", 1);
+        api.set("x", 7);
+        long until = System.currentTimeMillis() + 5000;
+        while (api.write_behind_error() == null && System.currentTimeMillis() < until) {
+            Thread.sleep(5);
+        }
+        assertNotNull(api.write_behind_error());
+        assertEquals(7, ((Number) api.get("x")).intValue());
+        api.set("y", 8);
+        until = System.currentTimeMillis() + 5000;
+        while (api.write_behind_error() != null && System.currentTimeMillis() < until) {
+            Thread.sleep(5);
+        }
+        assertNull(api.write_behind_error());
+        assertEquals(7, ((Number) api.get_nocache("x")).intValue());
+        assertEquals(8, ((Number) api.get_nocache("y")).intValue());
+    }
+}
@@ -0,0 +1,140 @@
+import os
+import sys
+import threading
+import time
+import unittest
+from StringIO import StringIO
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), '..', '..', 'main', 'python'))
+import simplejson
+from jsonrpcrmi import jsonrpcrmi as rmi
+
+
+class Request(object):
+	MEMFILE_MAX = 102400
+
+	def __init__(self, body):
+		self.json = body
+		self.body = StringIO(simplejson.dumps(body))
+
+
+class Car(rmi.JSONRPC):
+	def __init__(self):
+		super(Car, self).__init__()
+		self.x = 0
+		self.runs = 0
+		self.moves = []
+
+	def move(self, dx):
+		self.runs += 1
+		time.sleep(0.2)
+		self.x += dx
+		self.moves.append(dx)
+		return self.moves
+
+	def me(self):
+		return self
+
+	def echo(self, val):
+		return val
+
+
+def call(method, params, id=1, **kwargs):
+	return dict(jsonrpc='2.0', id=id, method=method, params=params, **kwargs)
+
+
+class ReplayTest(unittest.TestCase):
+	def setUp(self):
+		rmi.replays.clear()
+		rmi.replays_running.clear()
+		self.car = Car()
+
+	def test_replay_sends_first_response(self):
+		first = self.car.__jsoncall_one__(call('move', [1], idempotency_key='a'))
+		self.car.moves.append(50)
+		again = self.car.__jsoncall_one__(call('move', [1], id=2, idempotency_key='a'))
+		self.assertEqual([1], first['result'])
+		self.assertEqual([1], again['result'])
+		self.assertEqual(2, again['id'])
+		self.assertEqual(1, self.car.runs)
+
+	def test_replay_keeps_json_not_objects(self):
+		self.car.__jsoncall_one__(call('me', [], idempotency_key='b'))
+		self.assertEqual('hash:%d' % hash(self.car), rmi.replays['b']['result'])
+
+	def test_duplicate_waits_for_running_call(self):
+		results = []
+
+		def run(id):
+			results.append(self.car.__jsoncall_one__(call('move', [1], id=id, idempotency_key='c')))
+
+		threads = [threading.Thread(target=run, args=(i,)) for i in range(3)]
+		for t in threads:
+			t.start()
+		for t in threads:
+			t.join()
+		self.assertEqual(1, self.car.runs)
+		self.assertEqual([[1]] * 3, [r['result'] for r in results])
+		self.assertEqual([0, 1, 2], sorted(r['id'] for r in results))
+		self.assertEqual({}, rmi.replays_running)
+
+	def test_unrecorded_attempt_releases_key(self):
+		rmi.request = Request(call('nope', [], idempotency_key='d'))
+		self.car.__jsoncall_one__(call('nope', [], idempotency_key='d'))
+		self.assertEqual({}, rmi.replays_running)
+		self.assertEqual('d' in rmi.replays, False)
+		# and a retry runs rather than waiting forever
+		self.car.__jsoncall_one__(call('nope', [], idempotency_key='d'))
+		self.assertEqual({}, rmi.replays_running)
+
+	def test_calls_without_key_always_run(self):
+		self.car.__jsoncall_one__(call('move', [1]))
+		self.car.__jsoncall_one__(call('move', [1]))
+		self.assertEqual(2, self.car.runs)
+		self.assertEqual(0, len(rmi.replays))
+
+
+class PipelineTest(unittest.TestCase):
+	def setUp(self):
+		self.car = Car()
+
+	def batch(self, calls):
+		rmi.request = Request(calls)
+		return self.car.__jsoncall__()
+
+	def test_refs_resolve_in_pipelined_calls(self):
+		res = self.batch([
+			call('me', [], id=1, target=None),
+			call('echo', [{'__ref__': 1}], id=2, target=1),
+			call('x', [], id=3, target=1)])
+		self.assertEqual('hash:%d' % hash(self.car), res[1]['result'])
+		self.assertEqual(0, res[2]['result'])
+
+	def test_ordinary_calls_keep_their_params(self):
+		res = self.batch([
+			call('me', [], id=1),
+			call('echo', [{'__ref__': 1}], id=2),
+			call('echo', ['ref:1'], id=3)])
+		self.assertEqual({'__ref__': 1}, res[1]['result'])
+		self.assertEqual('ref:1', res[2]['result'])
+
+	def test_ref_inside_other_values_is_resolved(self):
+		res = self.batch([
+			call('me', [], id=1, target=None),
+			call('echo', [[{'__ref__': 1}, 'ref:1']], id=2, target=None)])
+		self.assertEqual(['hash:%d' % hash(self.car), 'ref:1'], res[1]['result'])
+
+	def test_call_on_missing_result_fails(self):
+		res = self.batch([
+			call('echo', [None], id=1, target=None),
+			call('x', [], id=2, target=1),
+			call('x', [], id=3, target=7)])
+		self.assertEqual(None, res[0]['result'])
+		self.assertTrue('error' in res[1])
+		self.assertTrue('error' in res[2])
+		self.assertEqual([1, 2, 3], [r['id'] for r in res])
+
+
+
+if __name__ == '__main__':
+	unittest.main()